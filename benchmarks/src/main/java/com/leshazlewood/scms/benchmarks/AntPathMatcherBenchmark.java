@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import com.leshazlewood.scms.core.AntPathMatcher;
+import com.leshazlewood.scms.core.PatternSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches a realistic set of source paths against the excludes and patterns of a typical site configuration, both
+ * one pattern at a time with {@link AntPathMatcher#matches(String, String)} (as the original processor did) and with
+ * a compiled {@link PatternSet}.  Each operation matches every path once.
+ *
+ * @since 0.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AntPathMatcherBenchmark {
+
+    static final List<String> PATTERNS = Arrays.asList(
+            //excludes:
+            "templates/**", "**/.git/**", "**/node_modules/**", "**/*.tmp", "**/*~", "drafts/**", ".scms.groovy",
+            //patterns:
+            "blog/**/*.md", "docs/**/index.md", "docs/**/*.md", "**/*.md.vtl", "**/*.md", "**/*.vtl",
+            "assets/**/*.css", "assets/**/*.js", "**/*.html"
+    );
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private PatternSet patternSet;
+    private List<String> paths;
+
+    @Setup
+    public void setUp() {
+        patternSet = matcher.compile(PATTERNS);
+        paths = new ArrayList<>();
+        String[] dirs = {"", "blog/2016/07/", "docs/guide/", "docs/api/v1/", "assets/css/", "assets/js/vendor/",
+                "templates/", "drafts/", "lib/node_modules/pkg/"};
+        String[] names = {"index.md", "page.md.vtl", "post.md", "layout.vtl", "site.css", "app.js", "image.png",
+                "notes.tmp", "index.html"};
+        for (String dir : dirs) {
+            for (String name : names) {
+                paths.add(dir + name);
+            }
+        }
+    }
+
+    @Benchmark
+    public void matchEachPattern(Blackhole bh) {
+        for (String path : paths) {
+            int index = -1;
+            for (int i = 0; i < PATTERNS.size(); i++) {
+                if (matcher.matches(PATTERNS.get(i), path)) {
+                    index = i;
+                    break;
+                }
+            }
+            bh.consume(index);
+        }
+    }
+
+    @Benchmark
+    public void matchPatternSet(Blackhole bh) {
+        for (String path : paths) {
+            bh.consume(patternSet.indexOf(path));
+        }
+    }
+}
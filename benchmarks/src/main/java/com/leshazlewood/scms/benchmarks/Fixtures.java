@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Deterministic content shared by the benchmarks.
+ *
+ * @since 0.4
+ */
+final class Fixtures {
+
+    private static final String MARKDOWN_BLOCK =
+            "## A section heading\n" +
+            "\n" +
+            "Some *emphasized* and **strong** text with `inline code`, a [link](http://example.com/page) and an\n" +
+            "auto link: http://example.com/auto.  Another sentence to make the paragraph a realistic length.\n" +
+            "\n" +
+            "* a list item\n" +
+            "* another item with *emphasis*\n" +
+            "    * a nested item\n" +
+            "\n" +
+            "| Column A | Column B |\n" +
+            "|----------|----------|\n" +
+            "| value 1  | value 2  |\n" +
+            "\n" +
+            "```\n" +
+            "String code = \"block\";\n" +
+            "```\n" +
+            "\n";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns a Markdown document of (at least) the specified number of characters.
+     */
+    static String markdown(int chars) {
+        StringBuilder sb = new StringBuilder(chars + MARKDOWN_BLOCK.length());
+        sb.append("# A page title\n\n");
+        while (sb.length() < chars) {
+            sb.append(MARKDOWN_BLOCK);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a metadata block with the specified number of {@code key: value} lines, followed by a blank line.
+     */
+    static String metadata(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("key").append(i).append(": value number ").append(i).append('\n');
+        }
+        if (lines > 0) {
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Creates a temporary directory, in memory ({@code /dev/shm}) where available so that disk I/O does not dominate.
+     */
+    static File createTempDir(String prefix) throws IOException {
+        File shm = new File("/dev/shm");
+        Path dir = shm.isDirectory() && shm.canWrite() ?
+                Files.createTempDirectory(shm.toPath(), prefix) : Files.createTempDirectory(prefix);
+        return dir.toFile();
+    }
+
+    static void delete(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import com.leshazlewood.scms.core.DefaultRenderRequest;
+import com.leshazlewood.scms.core.DefaultResource;
+import com.leshazlewood.scms.core.FileRenderer;
+import com.leshazlewood.scms.core.FlexmarkRenderer;
+import com.leshazlewood.scms.core.PegdownRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pegdown.Extensions;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders Markdown documents of various sizes with the {@link PegdownRenderer} and, for comparison, the
+ * {@link FlexmarkRenderer}.
+ *
+ * @since 0.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownRenderBenchmark {
+
+    @Param({"1024", "16384", "262144"})
+    public int documentSize;
+
+    private String document;
+    private final FileRenderer pegdownRenderer = new PegdownRenderer(Extensions.ALL);
+    private final FileRenderer flexmarkRenderer = new FlexmarkRenderer(Extensions.ALL);
+
+    @Setup
+    public void setUp() {
+        document = Fixtures.metadata(5) + Fixtures.markdown(documentSize);
+    }
+
+    @Benchmark
+    public StringWriter pegdown() throws IOException {
+        return render(pegdownRenderer);
+    }
+
+    @Benchmark
+    public StringWriter flexmark() throws IOException {
+        return render(flexmarkRenderer);
+    }
+
+    private StringWriter render(FileRenderer renderer) throws IOException {
+        StringWriter writer = new StringWriter(document.length() * 2);
+        DefaultResource resource = new DefaultResource("page.md", new StringReader(document));
+        renderer.render(new DefaultRenderRequest(new LinkedHashMap<String, Object>(), resource, writer));
+        return writer;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import com.leshazlewood.scms.core.PegdownRenderer;
+import com.leshazlewood.scms.core.SiteExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pegdown.Extensions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures extracting the metadata block from the top of a Markdown document with
+ * {@code PegdownRenderer.stripMetadata} and {@code SiteExporter.stripMetadata}.
+ *
+ * @since 0.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Param({"0", "5", "50"})
+    public int metadataLines;
+
+    @Param({"4096", "65536"})
+    public int bodySize;
+
+    private String document;
+    private final ExposedPegdownRenderer pegdownRenderer = new ExposedPegdownRenderer();
+    private final ExposedSiteExporter siteExporter = new ExposedSiteExporter();
+
+    @Setup
+    public void setUp() {
+        document = Fixtures.metadata(metadataLines) + Fixtures.markdown(bodySize);
+    }
+
+    @Benchmark
+    public String pegdownRendererStripMetadata() {
+        return pegdownRenderer.strip(document, new LinkedHashMap<String, Object>());
+    }
+
+    @Benchmark
+    public String siteExporterStripMetadata() {
+        return siteExporter.strip(document, new LinkedHashMap<String, Object>());
+    }
+
+    private static class ExposedPegdownRenderer extends PegdownRenderer {
+
+        ExposedPegdownRenderer() {
+            super(Extensions.ALL);
+        }
+
+        String strip(String markdown, Map<String, Object> model) {
+            return stripMetadata(markdown, model);
+        }
+    }
+
+    private static class ExposedSiteExporter extends SiteExporter {
+
+        String strip(String markdown, Map<String, Object> model) {
+            return stripMetadata(markdown, model);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import com.leshazlewood.scms.core.DefaultProcessor;
+import com.leshazlewood.scms.core.Processor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a single page end to end with {@link DefaultProcessor}: pattern matching, reading the source, stripping
+ * metadata, rendering the Markdown, merging it into the layout template and writing the result.  The fixture site is
+ * created in memory ({@code /dev/shm}) where available, so file system overhead is kept to a minimum.
+ *
+ * @since 0.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    private static final String CONFIG =
+            "scms {\n" +
+            "    excludes = ['templates/**']\n" +
+            "    model = [copyright: 'Copyright Example']\n" +
+            "    patterns {\n" +
+            "        '**/*.md' {\n" +
+            "            template = '%s'\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String TEMPLATE =
+            "<html><head><title>$!title</title></head><body>\n" +
+            "<div>$content</div>\n" +
+            "<footer>$copyright</footer>\n" +
+            "</body></html>\n";
+
+    @Param({"4096", "65536"})
+    public int pageSize;
+
+    private File dir;
+    private Processor processor;
+    private Collection<File> page;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.createTempDir("scms-processor-bench");
+        File src = new File(dir, "src");
+        File template = Fixtures.write(new File(src, "templates/default.vtl"), TEMPLATE);
+        Fixtures.write(new File(src, ".scms.groovy"), String.format(CONFIG, template.getAbsolutePath()));
+        File pageFile = Fixtures.write(new File(src, "docs/guide/page.md"),
+                "title: A page\n\n" + Fixtures.markdown(pageSize));
+        page = Collections.singleton(pageFile);
+
+        processor = new DefaultProcessor();
+        processor.setSourceDir(src);
+        processor.setDestDir(new File(dir, "out"));
+        processor.init();
+        processor.run();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void renderFile() {
+        //re-renders just this file, without walking the source tree:
+        processor.update(page);
+    }
+}
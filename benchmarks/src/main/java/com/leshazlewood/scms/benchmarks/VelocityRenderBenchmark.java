@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.benchmarks;
+
+import com.leshazlewood.scms.core.DefaultRenderRequest;
+import com.leshazlewood.scms.core.DefaultResource;
+import com.leshazlewood.scms.core.DefaultVelocityEngineFactory;
+import com.leshazlewood.scms.core.LayeredMap;
+import com.leshazlewood.scms.core.VelocityRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a page layout with the {@link VelocityRenderer} against a global model of various sizes (e.g. a large
+ * navigation tree or product catalog), layered under a per-page model as the processor does.  The layout is rendered
+ * both from source ({@code evaluate}, parsed every time) and by name (parsed once and cached).
+ *
+ * @since 0.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelocityRenderBenchmark {
+
+    private static final String TEMPLATE =
+            "<html><head><title>$title</title></head><body>\n" +
+            "<ul>\n" +
+            "#foreach($item in $nav)\n" +
+            "  <li><a href=\"$root/$item.href\">$item.title</a></li>\n" +
+            "#end\n" +
+            "</ul>\n" +
+            "<div>$content</div>\n" +
+            "<footer>$copyright</footer>\n" +
+            "</body></html>\n";
+
+    @Param({"10", "10000", "100000"})
+    public int modelSize;
+
+    private File dir;
+    private File templateFile;
+    private VelocityRenderer renderer;
+    private Map<String, Object> globalModel;
+    private String content;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.createTempDir("scms-velocity-bench");
+        templateFile = Fixtures.write(new File(dir, "templates/default.vtl"), TEMPLATE);
+        renderer = new VelocityRenderer(new DefaultVelocityEngineFactory(dir, null).createVelocityEngine());
+
+        globalModel = new LinkedHashMap<>();
+        for (int i = 0; i < modelSize; i++) {
+            globalModel.put("entry" + i, "value " + i);
+        }
+        List<Map<String, Object>> nav = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("href", "section" + i + "/index.html");
+            item.put("title", "Section " + i);
+            nav.add(item);
+        }
+        globalModel.put("nav", nav);
+        globalModel.put("copyright", "Copyright Example");
+
+        content = Fixtures.markdown(8192);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public StringWriter evaluate() throws IOException {
+        StringWriter writer = new StringWriter(16384);
+        DefaultResource resource = new DefaultResource("default.vtl", new StringReader(TEMPLATE));
+        renderer.render(new DefaultRenderRequest(pageModel(), resource, writer));
+        return writer;
+    }
+
+    @Benchmark
+    public StringWriter cachedTemplate() {
+        StringWriter writer = new StringWriter(16384);
+        renderer.render(templateFile.getAbsolutePath(), pageModel(), writer);
+        return writer;
+    }
+
+    private Map<String, Object> pageModel() {
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("title", "A page");
+        page.put("root", "..");
+        page.put("content", content);
+        return new LayeredMap<>(Arrays.asList(page, globalModel));
+    }
+}
@@ -15,9 +15,13 @@
  */
 package com.leshazlewood.scms.cli;
 
+import com.leshazlewood.scms.core.BuildStats;
 import com.leshazlewood.scms.core.DefaultProcessor;
+import com.leshazlewood.scms.core.OutputManifest;
 import com.leshazlewood.scms.core.Processor;
+import com.leshazlewood.scms.core.RenderCache;
 import com.leshazlewood.scms.core.SiteExporter;
+import com.leshazlewood.scms.core.SourceWatcher;
 import com.leshazlewood.scms.core.Version;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -27,6 +31,8 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Set;
 
 /**
  * @since 0.1
@@ -38,7 +44,16 @@ public class Main {
     private static final Option CONFIG = new Option("c", "config", true, "read the config file at the specified path. Default is <src_dir>/" + DEFAULT_CONFIG_FILE_NAME);
     private static final Option DEBUG = new Option("d", "debug", false, "show additional error (stack trace) information.");
     private static final Option ENVIRONMENT = new Option("e", "env", true, "the configuration environment to enable.");
+    private static final Option INCREMENTAL = new Option("i", "incremental", false, "only render files whose content, config or templates changed since the last incremental build.");
+    private static final Option WATCH = new Option("w", "watch", false, "after rendering, keep running and re-render files in src_dir as they change. Implies --incremental.");
     private static final Option HELP = new Option("help", "help", false, "show this help message.");
+    private static final Option JOBS = new Option("j", "jobs", true, "render up to <arg> files concurrently. Default is 1.");
+    private static final Option STATS = new Option("s", "stats", false, "print per-phase and per-renderer timings and the slowest files after building.");
+    private static final Option REPORT = new Option("r", "report", true, "write the --stats timings as JSON to the file at the specified path, e.g. build-report.json.");
+    private static final Option STATE_DIR = new Option("sd", "state-dir", true, "keep the state between builds (e.g. the list of changed outputs, " + OutputManifest.CHANGES_FILE_NAME + ") in the directory at the specified path. Default is <src_dir>/" + DefaultProcessor.DEFAULT_STATE_DIR_NAME + ". Must not be inside dest_dir.");
+    private static final Option RENDER_CACHE = new Option("rc", "render-cache", true, "reuse rendered output from, and store it in, the cache directory at the specified path.");
+    private static final Option RENDER_CACHE_SIZE = new Option("rcs", "render-cache-size", true, "the maximum size of the --render-cache in MB. Default is 1024.");
+    private static final Option VELOCITY_PROFILE = new Option("vp", "velocity-profile", true, "write the time spent in each Velocity template, #parse/#include target and macro to the file at the specified path.");
     private static final Option VERSION = new Option("version", "version", false, "display the SCMS and Java versions");
 
     public static void main(String[] args) throws Exception {
@@ -46,13 +61,22 @@ public class Main {
         CommandLineParser parser = new DefaultParser();
 
         Options options = new Options();
-        options.addOption(CONFIG).addOption(ENVIRONMENT).addOption(DEBUG).addOption(HELP).addOption(VERSION);
+        options.addOption(CONFIG).addOption(ENVIRONMENT).addOption(JOBS).addOption(INCREMENTAL).addOption(WATCH).addOption(STATE_DIR).addOption(STATS).addOption(REPORT).addOption(RENDER_CACHE).addOption(RENDER_CACHE_SIZE).addOption(VELOCITY_PROFILE).addOption(DEBUG).addOption(HELP).addOption(VERSION);
 
         boolean debug = false;
         File sourceDir = toFile(System.getProperty("user.dir"));
         File configFile = null;
         File destDir = null;
+        File stateDir = null;
         String envName = null;
+        int jobs = 1;
+        boolean incremental = false;
+        boolean watch = false;
+        boolean printStats = false;
+        File reportFile = null;
+        File velocityProfileFile = null;
+        File renderCacheDir = null;
+        long renderCacheSize = RenderCache.DEFAULT_MAX_SIZE;
 
         try {
             CommandLine line = parser.parse(options, args);
@@ -75,6 +99,34 @@ public class Main {
                 envName = envName != null ? envName.trim() : envName;
                 envName = "".equals(envName) ? null : envName;
             }
+            if (line.hasOption(JOBS.getOpt())) {
+                jobs = toPositiveInt(JOBS, line.getOptionValue(JOBS.getOpt()));
+            }
+            if (line.hasOption(INCREMENTAL.getOpt())) {
+                incremental = true;
+            }
+            if (line.hasOption(WATCH.getOpt())) {
+                watch = true;
+                incremental = true; //only re-render what a change actually affects
+            }
+            if (line.hasOption(STATE_DIR.getOpt())) {
+                stateDir = toFile(line.getOptionValue(STATE_DIR.getOpt()));
+            }
+            if (line.hasOption(STATS.getOpt())) {
+                printStats = true;
+            }
+            if (line.hasOption(REPORT.getOpt())) {
+                reportFile = toFile(line.getOptionValue(REPORT.getOpt()));
+            }
+            if (line.hasOption(RENDER_CACHE.getOpt())) {
+                renderCacheDir = toFile(line.getOptionValue(RENDER_CACHE.getOpt()));
+            }
+            if (line.hasOption(RENDER_CACHE_SIZE.getOpt())) {
+                renderCacheSize = toPositiveInt(RENDER_CACHE_SIZE, line.getOptionValue(RENDER_CACHE_SIZE.getOpt())) * 1024L * 1024;
+            }
+            if (line.hasOption(VELOCITY_PROFILE.getOpt())) {
+                velocityProfileFile = toFile(line.getOptionValue(VELOCITY_PROFILE.getOpt()));
+            }
 
             String[] remainingArgs = line.getArgs();
             if (remainingArgs == null) {
@@ -97,6 +149,10 @@ public class Main {
             assert sourceDir != null;
             assert destDir != null;
 
+            if (stateDir == null) {
+                stateDir = new File(sourceDir, DefaultProcessor.DEFAULT_STATE_DIR_NAME);
+            }
+
             if (configFile == null) {
                 configFile = new File(sourceDir, DEFAULT_CONFIG_FILE_NAME);
                 if (!configFile.exists() || !configFile.isFile()) {
@@ -120,16 +176,42 @@ public class Main {
             Processor processor = new DefaultProcessor();
             processor.setSourceDir(sourceDir);
             processor.setDestDir(destDir);
+            processor.setStateDir(stateDir);
             if (configFile != null) {
                 processor.setConfigFile(configFile);
             }
             if (envName != null) {
                 processor.setEnvironment(envName);
             }
+            processor.setJobs(jobs);
+            processor.setIncremental(incremental);
+            processor.setVelocityProfile(velocityProfileFile);
+            if (renderCacheDir != null) {
+                processor.setRenderCache(new RenderCache(renderCacheDir, renderCacheSize));
+            }
+
+            BuildStats stats = printStats || reportFile != null ? new BuildStats() : null;
+            processor.setStats(stats);
 
             processor.init();
             processor.run();
 
+            if (stats != null) {
+                stats.finish();
+                processor.setStats(null); //only the initial build is reported, not the --watch updates
+                if (printStats) {
+                    System.out.println();
+                    stats.print(System.out);
+                }
+                if (reportFile != null) {
+                    stats.writeReport(reportFile);
+                }
+            }
+
+            if (watch) {
+                watch(processor, sourceDir, destDir, stateDir, debug);
+            }
+
             /*
             SiteExporter siteExporter = new SiteExporter();
             siteExporter.setSourceDir(sourceDir);
@@ -148,6 +230,26 @@ public class Main {
         }
     }
 
+    private static void watch(final Processor processor, File sourceDir, File destDir, File stateDir, final boolean debug) throws IOException {
+        System.out.println("Watching " + sourceDir + " for changes.  Press Ctrl-C to stop.");
+        try (SourceWatcher watcher = new SourceWatcher(sourceDir, destDir, stateDir)) {
+            watcher.watch(new SourceWatcher.Listener() {
+                @Override
+                public void onChange(Set<File> changed) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        processor.update(changed);
+                        long millis = System.currentTimeMillis() - start;
+                        System.out.println("Processed " + changed.size() + " change(s) in " + millis + " ms.");
+                    } catch (Exception e) {
+                        //keep watching - the next save will most likely fix the problem:
+                        printException(e, debug);
+                    }
+                }
+            });
+        }
+    }
+
     private static void assertConfigNotDirectory(File f) {
         if (f.exists()) {
             if (f.isDirectory()) {
@@ -256,6 +358,19 @@ public class Main {
         }
     }
 
+    private static int toPositiveInt(Option option, String value) {
+        int i;
+        try {
+            i = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            i = 0;
+        }
+        if (i < 1) {
+            throw new IllegalArgumentException("The --" + option.getLongOpt() + " value must be a positive integer.");
+        }
+        return i;
+    }
+
     private static File toFile(String path) {
         String resolved = path;
         if (path.startsWith("~/") || path.startsWith(("~\\"))) {
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.cli;
+
+import com.leshazlewood.scms.core.DefaultRenderRequest;
+import com.leshazlewood.scms.core.DefaultResource;
+import com.leshazlewood.scms.core.FileRenderer;
+import com.leshazlewood.scms.core.FlexmarkRenderer;
+import com.leshazlewood.scms.core.PegdownRenderer;
+import org.pegdown.Extensions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the Markdown renderers on a real corpus: every {@code .md} and {@code .markdown} file beneath a directory
+ * is rendered repeatedly by the {@link PegdownRenderer} and the {@link FlexmarkRenderer}, and the throughput of each
+ * is reported along with the files whose HTML differs between the two.  Use it to decide whether a section of a site
+ * can be switched to {@code renderer = 'flexmark'}.
+ * <p/>
+ * Usage: {@code MarkdownBenchmark corpus_dir [iterations]}
+ *
+ * @since 0.4
+ */
+public class MarkdownBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 10;
+    private static final int MAX_REPORTED_DIFFERENCES = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: MarkdownBenchmark corpus_dir [iterations]");
+            System.exit(-1);
+        }
+
+        File corpusDir = new File(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        Map<String, String> corpus = readCorpus(corpusDir);
+        if (corpus.isEmpty()) {
+            System.out.println("No Markdown files found in " + corpusDir);
+            System.exit(-1);
+        }
+        long chars = 0;
+        for (String s : corpus.values()) {
+            chars += s.length();
+        }
+        System.out.println("Corpus: " + corpus.size() + " files, " + chars + " chars, " + iterations + " iterations.");
+
+        FileRenderer pegdown = new PegdownRenderer(Extensions.ALL);
+        FileRenderer flexmark = new FlexmarkRenderer(Extensions.ALL);
+
+        Map<String, String> pegdownOutput = renderAll(pegdown, corpus); //doubles as warm-up
+        Map<String, String> flexmarkOutput = renderAll(flexmark, corpus);
+
+        report("pegdown", measure(pegdown, corpus, iterations), corpus.size(), chars, iterations);
+        report("flexmark", measure(flexmark, corpus, iterations), corpus.size(), chars, iterations);
+
+        List<String> different = new ArrayList<>();
+        for (Map.Entry<String, String> e : pegdownOutput.entrySet()) {
+            if (!normalize(e.getValue()).equals(normalize(flexmarkOutput.get(e.getKey())))) {
+                different.add(e.getKey());
+            }
+        }
+        System.out.println();
+        System.out.println((corpus.size() - different.size()) + " of " + corpus.size() +
+                " files render identically (ignoring whitespace).");
+        for (int i = 0; i < different.size() && i < MAX_REPORTED_DIFFERENCES; i++) {
+            System.out.println("  differs: " + different.get(i));
+        }
+        if (different.size() > MAX_REPORTED_DIFFERENCES) {
+            System.out.println("  ... and " + (different.size() - MAX_REPORTED_DIFFERENCES) + " more.");
+        }
+    }
+
+    private static Map<String, String> readCorpus(File dir) throws IOException {
+        final Path root = dir.toPath();
+        final Map<String, String> corpus = new LinkedHashMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".md") || name.endsWith(".markdown")) {
+                    String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                    corpus.put(root.relativize(file).toString(), content);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return corpus;
+    }
+
+    private static long measure(FileRenderer renderer, Map<String, String> corpus, int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            renderAll(renderer, corpus);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Map<String, String> renderAll(FileRenderer renderer, Map<String, String> corpus) throws IOException {
+        Map<String, String> output = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : corpus.entrySet()) {
+            StringWriter writer = new StringWriter(e.getValue().length() * 2);
+            DefaultResource resource = new DefaultResource(e.getKey(), new StringReader(e.getValue()));
+            renderer.render(new DefaultRenderRequest(new LinkedHashMap<String, Object>(), resource, writer));
+            output.put(e.getKey(), writer.toString());
+        }
+        return output;
+    }
+
+    private static void report(String name, long nanos, int files, long chars, int iterations) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-10s %10.1f ms/pass %10.1f files/s %8.2f MB/s%n", name,
+                nanos / 1e6 / iterations, files * iterations / seconds, chars * iterations / seconds / (1024 * 1024));
+    }
+
+    private static String normalize(String html) {
+        return html == null ? "" : html.replaceAll("\\s+", " ").trim();
+    }
+}
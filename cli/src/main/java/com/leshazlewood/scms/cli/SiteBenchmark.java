@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.cli;
+
+import com.leshazlewood.scms.core.DefaultProcessor;
+import com.leshazlewood.scms.core.Processor;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Builds a {@link SiteGenerator synthetic site} several times with the {@link DefaultProcessor} and reports the
+ * throughput (pages/s and source MB/s), the peak heap and the GC time of every build.  Because the site is generated
+ * from a seed, the numbers can be compared across SCMS versions to catch scaling regressions in the directory walk,
+ * pattern matching, rendering or manifest handling that small sites don't show.
+ * <p/>
+ * Usage: {@code scms-bench [options]}, see {@code scms-bench --help}.
+ *
+ * @since 0.4
+ */
+public class SiteBenchmark {
+
+    private static final Option PAGES = new Option("p", "pages", true, "number of Markdown pages to generate. Default is 1000.");
+    private static final Option DEPTH = new Option("depth", "depth", true, "directory depth of the pages. Default is 3.");
+    private static final Option PAGES_PER_DIR = new Option("ppd", "pages-per-dir", true, "number of pages per directory. Default is 50.");
+    private static final Option SIZE = new Option("s", "size", true, "approximate size of each page's Markdown in chars. Default is 4096.");
+    private static final Option FRONT_MATTER = new Option("fm", "front-matter", true, "number of front matter lines per page. Default is 5.");
+    private static final Option ASSETS = new Option("a", "assets", true, "number of binary assets to generate. Default is 100.");
+    private static final Option ASSET_SIZE = new Option("as", "asset-size", true, "size of each asset in bytes. Default is 16384.");
+    private static final Option EXCLUDES = new Option("x", "excludes", true, "number of (matching) exclude patterns in the config. Default is 5.");
+    private static final Option PATTERNS = new Option("pt", "patterns", true, "number of (non-matching) render patterns in the config. Default is 5.");
+    private static final Option SEED = new Option("seed", "seed", true, "random seed of the generated content. Default is 42.");
+    private static final Option RUNS = new Option("r", "runs", true, "number of builds. Default is 5.");
+    private static final Option JOBS = new Option("j", "jobs", true, "render up to <arg> files concurrently. Default is 1.");
+    private static final Option INCREMENTAL = new Option("i", "incremental", false, "build incrementally, so all builds after the first measure a build without changes.");
+    private static final Option DIR = new Option("dir", "dir", true, "directory to generate the site and output into. Default is a temporary directory that is deleted afterwards.");
+    private static final Option HELP = new Option("help", "help", false, "show this help message.");
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+        for (Option option : Arrays.asList(PAGES, DEPTH, PAGES_PER_DIR, SIZE, FRONT_MATTER, ASSETS, ASSET_SIZE,
+                EXCLUDES, PATTERNS, SEED, RUNS, JOBS, INCREMENTAL, DIR, HELP)) {
+            options.addOption(option);
+        }
+
+        CommandLine line;
+        try {
+            line = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.out.println("Error: " + e.getMessage());
+            printHelpAndExit(options, -1);
+            return;
+        }
+        if (line.hasOption(HELP.getOpt())) {
+            printHelpAndExit(options, 0);
+        }
+
+        SiteGenerator generator = new SiteGenerator();
+        int runs = 5;
+        int jobs = 1;
+        File dir = null;
+        try {
+            if (line.hasOption(PAGES.getOpt())) {
+                generator.setPages(toInt(line, PAGES, 1));
+            }
+            if (line.hasOption(DEPTH.getOpt())) {
+                generator.setDepth(toInt(line, DEPTH, 0));
+            }
+            if (line.hasOption(PAGES_PER_DIR.getOpt())) {
+                generator.setPagesPerDirectory(toInt(line, PAGES_PER_DIR, 1));
+            }
+            if (line.hasOption(SIZE.getOpt())) {
+                generator.setMarkdownSize(toInt(line, SIZE, 0));
+            }
+            if (line.hasOption(FRONT_MATTER.getOpt())) {
+                generator.setFrontMatterLines(toInt(line, FRONT_MATTER, 0));
+            }
+            if (line.hasOption(ASSETS.getOpt())) {
+                generator.setAssets(toInt(line, ASSETS, 0));
+            }
+            if (line.hasOption(ASSET_SIZE.getOpt())) {
+                generator.setAssetSize(toInt(line, ASSET_SIZE, 0));
+            }
+            if (line.hasOption(EXCLUDES.getOpt())) {
+                generator.setExcludes(toInt(line, EXCLUDES, 0));
+            }
+            if (line.hasOption(PATTERNS.getOpt())) {
+                generator.setPatterns(toInt(line, PATTERNS, 0));
+            }
+            if (line.hasOption(SEED.getOpt())) {
+                generator.setSeed(Long.parseLong(line.getOptionValue(SEED.getOpt()).trim()));
+            }
+            if (line.hasOption(RUNS.getOpt())) {
+                runs = toInt(line, RUNS, 1);
+            }
+            if (line.hasOption(JOBS.getOpt())) {
+                jobs = toInt(line, JOBS, 1);
+            }
+            if (line.hasOption(DIR.getOpt())) {
+                dir = new File(line.getOptionValue(DIR.getOpt()));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            printHelpAndExit(options, -1);
+        }
+
+        boolean incremental = line.hasOption(INCREMENTAL.getOpt());
+        boolean temporary = dir == null;
+        if (temporary) {
+            dir = Files.createTempDirectory("scms-bench").toFile();
+        }
+        File sourceDir = new File(dir, "src");
+        File destDir = new File(dir, "out");
+
+        try {
+            long start = System.nanoTime();
+            generator.generate(sourceDir);
+            System.out.printf("Generated %d pages (%.1f MB) in %s in %d ms.%n", generator.getPages(),
+                    generator.getSourceBytes() / (1024.0 * 1024), sourceDir, (System.nanoTime() - start) / 1000000);
+            System.out.printf("Builds: %d, jobs: %d, incremental: %s%n%n", runs, jobs, incremental);
+            System.out.printf("%4s %10s %10s %8s %12s %10s%n", "run", "ms", "pages/s", "MB/s", "peak heap MB", "GC ms");
+
+            for (int run = 1; run <= runs; run++) {
+                if (!incremental) {
+                    delete(destDir);
+                }
+                Processor processor = new DefaultProcessor();
+                processor.setSourceDir(sourceDir);
+                processor.setDestDir(destDir);
+                processor.setConfigFile(new File(sourceDir, DefaultProcessor.DEFAULT_CONFIG_FILE_NAME));
+                processor.setJobs(jobs);
+                processor.setIncremental(incremental);
+
+                resetPeakHeap();
+                long gcBefore = getGcMillis();
+                start = System.nanoTime();
+
+                processor.init();
+                processor.run();
+
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%4d %10.0f %10.1f %8.2f %12.1f %10d%n", run, seconds * 1000,
+                        generator.getPages() / seconds, generator.getSourceBytes() / seconds / (1024 * 1024),
+                        getPeakHeap() / (1024.0 * 1024), getGcMillis() - gcBefore);
+            }
+        } finally {
+            if (temporary) {
+                delete(dir);
+            }
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc(); //start every build from (roughly) the live set of the previous one
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the heap pools' peak usage, an upper bound of the actual peak since the pools don't
+     * necessarily peak at the same time.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime()); //-1 if unsupported
+        }
+        return millis;
+    }
+
+    private static int toInt(CommandLine line, Option option, int min) {
+        int i;
+        try {
+            i = Integer.parseInt(line.getOptionValue(option.getOpt()).trim());
+        } catch (NumberFormatException e) {
+            i = min - 1;
+        }
+        if (i < min) {
+            throw new IllegalArgumentException("The --" + option.getLongOpt() + " value must be an integer >= " + min + ".");
+        }
+        return i;
+    }
+
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void printHelpAndExit(Options options, int exitCode) {
+        HelpFormatter help = new HelpFormatter();
+        help.setWidth(100);
+        help.printHelp("scms-bench [options]", "\nGenerates a synthetic site and measures how fast SCMS builds it.\n\n", options, null);
+        System.exit(exitCode);
+    }
+}
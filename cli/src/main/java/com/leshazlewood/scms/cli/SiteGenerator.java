@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates a synthetic, reproducible SCMS site: Markdown pages with front matter spread over a directory tree,
+ * binary assets, a layout template and a {@code .scms.groovy} config with a configurable number of excludes and
+ * patterns.  The same settings (including the seed) always produce byte-for-byte identical sites, so builds of
+ * generated sites can be compared across SCMS versions and machines.
+ *
+ * @since 0.4
+ */
+public class SiteGenerator {
+
+    private static final String[] WORDS = {
+            "static", "site", "content", "render", "template", "markdown", "page", "build", "index", "section",
+            "guide", "example", "simple", "velocity", "output", "source", "directory", "pattern", "model", "layout"
+    };
+
+    private int pages = 1000;
+    private int depth = 3;
+    private int pagesPerDirectory = 50;
+    private int markdownSize = 4096;
+    private int frontMatterLines = 5;
+    private int assets = 100;
+    private int assetSize = 16384;
+    private int excludes = 5;
+    private int patterns = 5;
+    private long seed = 42;
+
+    private long sourceBytes;
+
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public void setPagesPerDirectory(int pagesPerDirectory) {
+        this.pagesPerDirectory = pagesPerDirectory;
+    }
+
+    public void setMarkdownSize(int markdownSize) {
+        this.markdownSize = markdownSize;
+    }
+
+    public void setFrontMatterLines(int frontMatterLines) {
+        this.frontMatterLines = frontMatterLines;
+    }
+
+    public void setAssets(int assets) {
+        this.assets = assets;
+    }
+
+    public void setAssetSize(int assetSize) {
+        this.assetSize = assetSize;
+    }
+
+    public void setExcludes(int excludes) {
+        this.excludes = excludes;
+    }
+
+    public void setPatterns(int patterns) {
+        this.patterns = patterns;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the total number of bytes of the pages and assets written by the last {@link #generate} call.
+     *
+     * @return the total number of bytes of the pages and assets written by the last {@link #generate} call.
+     */
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Writes the site into the specified (preferably empty) directory.
+     *
+     * @param dir the directory to write the site into
+     * @throws IOException if the site cannot be written
+     */
+    public void generate(File dir) throws IOException {
+        sourceBytes = 0;
+        Random random = new Random(seed);
+
+        File template = new File(dir, "templates/default.vtl");
+        write(template, "<html>\n<head><title>$!title</title></head>\n<body>\n" +
+                "<nav><a href=\"$root/index.html\">$siteName</a></nav>\n" +
+                "$content\n" +
+                "</body>\n</html>\n");
+        write(new File(dir, ".scms.groovy"), config(template));
+
+        for (int i = 0; i < excludes; i++) {
+            //real files, so excluded directories are actually encountered (and pruned) during the walk:
+            write(new File(dir, "excluded-" + i + "/ignored.md"), "# Ignored\n");
+        }
+
+        int directories = Math.max(1, (pages + pagesPerDirectory - 1) / pagesPerDirectory);
+        int fanout = depth > 0 ? Math.max(2, (int) Math.ceil(Math.pow(directories, 1.0 / depth))) : 1;
+
+        StringBuilder sb = new StringBuilder(markdownSize + 1024);
+        for (int i = 0; i < pages; i++) {
+            File pageDir = directory(dir, i / pagesPerDirectory, fanout);
+            sb.setLength(0);
+            appendFrontMatter(sb, i);
+            appendMarkdown(sb, random);
+            sourceBytes += write(new File(pageDir, "page-" + i + ".md"), sb.toString());
+        }
+
+        byte[] bytes = new byte[assetSize];
+        for (int i = 0; i < assets; i++) {
+            random.nextBytes(bytes);
+            File asset = new File(directory(new File(dir, "assets"), i / pagesPerDirectory, fanout), "asset-" + i + ".png");
+            asset.getParentFile().mkdirs();
+            try (OutputStream out = Files.newOutputStream(asset.toPath())) {
+                out.write(bytes);
+            }
+            sourceBytes += bytes.length;
+        }
+    }
+
+    private File directory(File root, int index, int fanout) {
+        File dir = root;
+        for (int level = 0; level < depth; level++) {
+            dir = new File(dir, "s" + (index % fanout));
+            index /= fanout;
+        }
+        return dir;
+    }
+
+    private String config(File template) {
+        StringBuilder sb = new StringBuilder("scms {\n");
+        sb.append("    excludes = ['templates/**'");
+        for (int i = 0; i < excludes; i++) {
+            sb.append(", 'excluded-").append(i).append("/**'");
+        }
+        sb.append("]\n");
+        sb.append("    model = [siteName: 'Synthetic Site']\n");
+        sb.append("    patterns {\n");
+        for (int i = 0; i < patterns; i++) {
+            //never match, but every page is still tested against them before reaching the last pattern:
+            sb.append("        'unmatched-").append(i).append("/**/*.md' {\n");
+            sb.append("            render = 'copy'\n");
+            sb.append("        }\n");
+        }
+        sb.append("        '**/*.md' {\n");
+        sb.append("            template = '").append(template.getAbsolutePath().replace('\\', '/')).append("'\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void appendFrontMatter(StringBuilder sb, int page) {
+        if (frontMatterLines <= 0) {
+            return;
+        }
+        sb.append("title: Page ").append(page).append('\n');
+        for (int i = 1; i < frontMatterLines; i++) {
+            sb.append("key").append(i).append(": value ").append(i).append('\n');
+        }
+        sb.append('\n');
+    }
+
+    private void appendMarkdown(StringBuilder sb, Random random) {
+        int end = sb.length() + markdownSize;
+        int block = 0;
+        while (sb.length() < end) {
+            switch (block++ % 4) {
+                case 0:
+                    sb.append("## ");
+                    appendWords(sb, random, 4);
+                    sb.append("\n\n");
+                    break;
+                case 1:
+                case 2:
+                    appendWords(sb, random, 60);
+                    sb.append(" *").append(word(random)).append("* **").append(word(random)).append("** [")
+                            .append(word(random)).append("](http://example.com/").append(word(random)).append(")\n\n");
+                    break;
+                default:
+                    for (int i = 0; i < 4; i++) {
+                        sb.append("* ");
+                        appendWords(sb, random, 6);
+                        sb.append('\n');
+                    }
+                    sb.append('\n');
+            }
+        }
+    }
+
+    private static void appendWords(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(i % 12 == 0 ? '\n' : ' ');
+            }
+            sb.append(word(random));
+        }
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static long write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), bytes);
+        return bytes.length;
+    }
+}
@@ -1,31 +1,90 @@
 package com.leshazlewood.scms.core
 
+import com.vladsch.flexmark.html.HtmlRenderer
+import com.vladsch.flexmark.parser.Parser
 import org.apache.velocity.app.VelocityEngine
 import org.pegdown.Extensions
 import org.pegdown.PegDownProcessor
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
 
-import java.nio.charset.StandardCharsets
+import java.nio.file.FileVisitOption
+import java.nio.file.FileVisitResult
 import java.nio.file.Files
-import java.nio.file.LinkOption
-import java.nio.file.StandardCopyOption
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 
 @SuppressWarnings(["ChangeToOperator", "GrMethodMayBeStatic"])
 class DefaultProcessor implements Processor {
 
     public static final String DEFAULT_CONFIG_FILE_NAME = '.scms.groovy'
 
+    //the default state directory, in the source directory, see setStateDir:
+    public static final String DEFAULT_STATE_DIR_NAME = '.scms'
+
+    //changes whenever the render cache key's inputs change, so entries of older versions are never used:
+    private static final String RENDER_CACHE_KEY_VERSION = 'scms-render-1'
+
+    //the code that renders: entries rendered by a different build of scms or of a renderer library are never used:
+    private static final String RENDERER_VERSIONS = [DefaultProcessor, VelocityEngine, PegDownProcessor, Parser,
+                                                     HtmlRenderer].collect { Version.of(it) }.join('\n')
+
+    //reads and writes mostly wait on the disk, so the pipeline's I/O stages get at least this many threads each:
+    private static final int MIN_IO_THREADS = 4
+
+    //copies submitted but not yet finished, beyond which the rendering threads wait for the copy threads:
+    private static final int MAX_QUEUED_COPIES = 1024
+
+    //the renderer chain of a file name is determined for this stem followed by the name's extensions.  No renderer
+    //supports it, so only the extensions matter:
+    private static final String PLACEHOLDER_STEM = '_'
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultProcessor)
+
+    //the fingerprint of configuration containing values that cannot be fingerprinted, see appendFingerprint:
+    private static final String UNFINGERPRINTABLE = ''
+
     PatternMatcher patternMatcher = new AntPathMatcher()
+    SourceReader sourceReader = new SourceReader()
+    OutputWriter outputWriter = new OutputWriter()
 
     Renderer velocityRenderer;
     Renderer pegdownRenderer;
+    Renderer flexmarkRenderer;
     Collection<Renderer> renderers;
+    Map<String, Renderer> renderersByName;
     Map<String, Renderer> renderersByExtension;
 
     File sourceDir
     File destDir
+    File stateDir
     File configFile
+    File velocimacroLibrary = new File(DefaultVelocityEngineFactory.DEFAULT_VELOCIMACRO_LIBRARY)
     String envName
     Map config
+    PatternSet excludeSet
+    PatternSet patternSet
+    int jobs = 1
+    boolean incremental
+
+    BuildManifest previousManifest
+    BuildManifest manifest
+    String globalConfigHash
+    Map<String, String> patternConfigHashes = new ConcurrentHashMap<>()
+    Map<String, String> templateHashes = new ConcurrentHashMap<>()
+    Set<String> unfingerprintableWarned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+    Map<Integer, Rule> rules = new ConcurrentHashMap<>() //by pattern index, -1 for files matching no pattern
+    Queue<RenderTimeoutException> timeouts = new ConcurrentLinkedQueue<>()
+    BuildStats stats
+    File velocityProfileFile
+    VelocityProfiler velocityProfiler
+    RenderCache renderCache
+    RenderCosts renderCosts
+    CopyExecutor copyExecutor //of the current build or update
+    OutputManifest outputs //of the last build or update that completed
 
     @Override
     public void setSourceDir(File sourceDir) {
@@ -37,6 +96,17 @@ class DefaultProcessor implements Processor {
         this.destDir = destDir
     }
 
+    /**
+     * Sets the directory the state kept between builds is stored in, {@code <sourceDir>/.scms} by default: the
+     * {@link OutputManifest} and its change list (see {@link OutputManifest#CHANGES_FILE_NAME}), the
+     * {@link BuildManifest} of incremental builds and the {@link RenderCosts} of concurrent builds.  It is never
+     * rendered, and must not be inside the destination directory so that none of it is published with the site.
+     */
+    @Override
+    void setStateDir(File stateDir) {
+        this.stateDir = stateDir
+    }
+
     @Override
     public void setConfigFile(File configFile) {
         this.configFile = configFile
@@ -47,6 +117,34 @@ class DefaultProcessor implements Processor {
         this.envName = envName
     }
 
+    @Override
+    void setJobs(int jobs) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("jobs must be greater than zero.")
+        }
+        this.jobs = jobs
+    }
+
+    @Override
+    void setIncremental(boolean incremental) {
+        this.incremental = incremental
+    }
+
+    @Override
+    void setStats(BuildStats stats) {
+        this.stats = stats
+    }
+
+    @Override
+    void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache
+    }
+
+    @Override
+    void setVelocityProfile(File file) {
+        this.velocityProfileFile = file
+    }
+
     @Override
     public void init() {
 
@@ -64,10 +162,38 @@ class DefaultProcessor implements Processor {
             throw new IllegalArgumentException("Source directory and destination directory cannot be the same.");
         }
 
-        VelocityEngine velocityEngine = new DefaultVelocityEngineFactory(sourceDir, null).createVelocityEngine();
-        velocityRenderer = new VelocityRenderer(velocityEngine);
+        if (stateDir == null) {
+            stateDir = new File(sourceDir, DEFAULT_STATE_DIR_NAME)
+        }
+        if (normalize(stateDir).toPath().startsWith(normalize(destDir).toPath())) {
+            throw new IllegalArgumentException("State directory cannot be inside the destination directory.");
+        }
+        ensureDirectory(stateDir)
+        deleteLegacyStateFiles()
 
-        pegdownRenderer = new PegdownRenderer(new PegDownProcessor(Extensions.ALL))
+        velocityProfiler = velocityProfileFile != null ? new VelocityProfiler() : null
+        createRenderers()
+
+        if (configFile == null) {
+            configFile = new File(sourceDir, DEFAULT_CONFIG_FILE_NAME);
+        }
+
+        loadConfig()
+    }
+
+    /**
+     * Creates the renderers.  The Velocity engine loads the {@link #velocimacroLibrary velocimacro library} only when
+     * it is created, so this is done again whenever the library changes.
+     */
+    private void createRenderers() {
+
+        DefaultVelocityEngineFactory velocityEngineFactory = new DefaultVelocityEngineFactory(sourceDir, null)
+        velocityEngineFactory.setProfiler(velocityProfiler)
+        velocityEngineFactory.setVelocimacroLibrary(velocimacroLibrary)
+        VelocityEngine velocityEngine = velocityEngineFactory.createVelocityEngine();
+        velocityRenderer = new VelocityRenderer(velocityEngine, velocityProfiler);
+
+        pegdownRenderer = new PegdownRenderer(Extensions.ALL)
 
         renderers = []
         renderers << velocityRenderer
@@ -75,10 +201,24 @@ class DefaultProcessor implements Processor {
 
         renderersByExtension = asRendererMap(renderers)
 
-        if (configFile == null) {
-            configFile = new File(sourceDir, DEFAULT_CONFIG_FILE_NAME);
+        //alternative renderers are only used when selected with the 'renderer' config property:
+        flexmarkRenderer = new FlexmarkRenderer(Extensions.ALL)
+
+        renderersByName = [velocity: velocityRenderer, pegdown: pegdownRenderer, flexmark: flexmarkRenderer]
+    }
+
+    /**
+     * Deletes the state files that builds before the {@link #setStateDir state directory} existed kept in the
+     * destination directory, where they would have been published with the site.
+     */
+    private void deleteLegacyStateFiles() {
+        for (String name : [OutputManifest.DEFAULT_FILE_NAME, OutputManifest.CHANGES_FILE_NAME,
+                            BuildManifest.DEFAULT_FILE_NAME, RenderCosts.DEFAULT_FILE_NAME]) {
+            Files.deleteIfExists(new File(destDir, name).toPath())
         }
+    }
 
+    private void loadConfig() {
         if (configFile.exists()) {
             if (configFile.isDirectory()) {
                 throw new IllegalArgumentException("Expected configuration file " + configFile + " is a directory, not a file.");
@@ -97,6 +237,18 @@ class DefaultProcessor implements Processor {
         } else {
             config = [:]
         }
+        globalConfigHash = null
+        patternConfigHashes.clear()
+        unfingerprintableWarned.clear()
+        rules.clear()
+
+        //match each path against all excludes/patterns at once instead of one pattern at a time:
+        Object excludes = config.get('excludes')
+        Object patterns = config.get('patterns')
+        excludeSet = patternMatcher.compile(excludes instanceof Collection ?
+                (excludes as Collection).collect { it as String } : [])
+        patternSet = patternMatcher.compile(patterns instanceof Map ?
+                (patterns as Map).keySet().collect { it as String } : [])
     }
 
     private static Map<String, Renderer> asRendererMap(Collection<Renderer> c) {
@@ -113,32 +265,449 @@ class DefaultProcessor implements Processor {
 
     @Override
     public void run() {
-        recurse(sourceDir);
+        build(true)
     }
 
-    private void ensureDirectory(File f) throws IOException {
-        if (f.exists()) {
-            if (!f.isDirectory()) {
-                throw new IllegalArgumentException("Specified file " + f + " is not a directory.");
+    /**
+     * Processes only the specified changed files (and directories) instead of the entire source tree, without
+     * re-creating any renderers.  This is intended for long-running processes, like a watch mode, that call
+     * {@link #run()} once and then this method for every subsequent batch of changes:
+     * <ul>
+     * <li>A changed configuration file is reloaded and the entire tree is rebuilt.</li>
+     * <li>A changed {@link #velocimacroLibrary velocimacro library} could change any page, so the renderers are
+     * re-created and the entire tree is rebuilt.</li>
+     * <li>Included files are rendered, and included directories are walked and all of their files rendered.</li>
+     * <li>If a changed file is excluded but (when {@link #setIncremental(boolean) incremental}) the manifest records
+     * which files used it as a template, {@code #parse} or {@code #include} target, only those files are
+     * re-rendered.</li>
+     * <li>If a changed file is excluded but is used as a {@code template}, the entire tree is walked but (when
+     * incremental) only the files rendered with that template are re-rendered.</li>
+     * <li>Any other excluded file could be used by any template (e.g. via {@code #parse}), so the entire tree is
+     * rebuilt.</li>
+     * <li>The outputs of deleted source files and directories are deleted, and their manifest entries removed.  Other
+     * deleted files and files in the {@link #setStateDir state directory} are ignored.</li>
+     * </ul>
+     */
+    @Override
+    void update(Collection<File> changedFiles) {
+
+        outputWriter.reset() //output directories may have been deleted since the last run or update
+
+        File normalizedConfigFile = normalize(configFile)
+        File normalizedVelocimacroLibrary = normalize(velocimacroLibrary)
+        File normalizedSourceDir = normalize(sourceDir)
+
+        List<SourceFile> files = []
+        List<String> deleted = []
+        boolean reload = false
+        boolean macrosChanged = false
+        boolean rebuild = false
+        boolean templateChanged = false
+        Set<String> dependents
+
+        for (File changed : changedFiles) {
+            File f = normalize(changed)
+            if (f == normalizedConfigFile) {
+                reload = true
+            } else if (f == normalizedVelocimacroLibrary) {
+                macrosChanged = true
+            } else if (isState(f)) {
+                continue //e.g. the manifests written by the last update
+            } else if (!f.exists()) {
+                if (f != normalizedSourceDir && isIncluded(f)) {
+                    deleted << getRelativePath(sourceDir, f)
+                }
+            } else if (f == normalizedSourceDir) {
+                rebuild = true //the watcher lost track of changes - anything may be different
+            } else if (isIncluded(f)) {
+                String relPath = getRelativePath(sourceDir, f)
+                if (f.isDirectory()) {
+                    outputWriter.createDirectories(new File(destDir, relPath))
+                    walk(f, files)
+                } else {
+                    files << SourceFile.read(f, relPath)
+                }
+            } else if ((dependents = getDependents(f)) != null) {
+                //only the files rendered with this template, #parse or #include target the last time:
+                for (String relPath : dependents) {
+                    File dependent = new File(sourceDir, relPath)
+                    if (dependent.isFile()) {
+                        files << SourceFile.read(dependent, relPath)
+                    }
+                }
+            } else if (isTemplate(f)) {
+                templateChanged = true
+            } else {
+                rebuild = true
             }
-            return;
         }
 
-        if (!f.mkdirs()) {
-            throw new IOException("Unable to create directory " + f);
+        if (reload || macrosChanged) {
+            if (macrosChanged) {
+                createRenderers()
+                templateHashes.clear()
+            }
+            loadConfig()
+            build(false)
+        } else if (rebuild) {
+            build(false)
+        } else if (templateChanged) {
+            build(true)
+        } else if (!files.isEmpty() || !deleted.isEmpty()) {
+            files.unique { it.relativePath } //e.g. a changed page that also uses a changed partial
+            beginManifest(manifest ?: BuildManifest.load(getManifestFile()), manifest)
+            beginOutputs(false)
+            removeDeleted(deleted)
+            renderAll(files)
+            saveManifest()
+            saveOutputs()
+            saveVelocityProfile()
+            checkTimeouts()
+        }
+    }
+
+    /**
+     * Removes the manifest entries of the deleted source files or directories at the specified relative paths, and
+     * their outputs from the output manifest so that they are pruned when it is saved.
+     */
+    private void removeDeleted(Collection<String> relPaths) {
+        for (String relPath : relPaths) {
+            String prefix = relPath + File.separator
+            if (manifest != null) {
+                for (BuildManifest.Entry entry : new ArrayList<>(manifest.entries)) {
+                    if (entry.sourcePath == relPath || entry.sourcePath.startsWith(prefix)) {
+                        manifest.remove(entry.sourcePath)
+                        if (entry.outputPath != null) {
+                            outputWriter.manifest.remove(entry.outputPath)
+                        }
+                    }
+                }
+            }
+            //a deleted directory's outputs are in the same directory of the destination:
+            outputWriter.manifest.remove(relPath)
+            String destRelPath = getDestRelPath(relPath)
+            if (destRelPath != null) {
+                outputWriter.manifest.remove(destRelPath)
+            }
+        }
+    }
+
+    private void build(boolean skipUnchanged) {
+
+        outputWriter.reset() //output directories may have been deleted since the last run or update
+
+        if (incremental) {
+            BuildManifest previous = skipUnchanged ? BuildManifest.load(getManifestFile()) : new BuildManifest()
+            beginManifest(previous, new BuildManifest())
+        }
+
+        List<SourceFile> files = []
+        walk(sourceDir, files);
+
+        if (jobs > 1) {
+            if (renderCosts == null) {
+                renderCosts = RenderCosts.load(getRenderCostsFile())
+            }
+            renderCosts.retain(files.collect { it.relativePath }) //forget deleted files
+        }
+
+        beginOutputs(true)
+
+        renderAll(files)
+
+        saveManifest()
+
+        saveOutputs()
+
+        saveVelocityProfile()
+
+        checkTimeouts()
+    }
+
+    private void beginManifest(BuildManifest previous, BuildManifest current) {
+        if (!incremental) {
+            return
+        }
+        previousManifest = previous
+        manifest = current ?: previous
+        globalConfigHash = null //computed when first needed, see patternConfigHash
+        patternConfigHashes.clear()
+        templateHashes.clear()
+    }
+
+    private void saveManifest() {
+        if (manifest != null) {
+            manifest.save(getManifestFile())
+        }
+    }
+
+    /**
+     * Starts recording the outputs of a build (or update) in a new {@link OutputManifest}, compared against the last
+     * completed build's outputs.
+     *
+     * @param complete {@code true} if every source file is processed, so the outputs not produced anymore can be
+     *                 pruned afterwards
+     */
+    private void beginOutputs(boolean complete) {
+        if (outputs == null) {
+            outputs = OutputManifest.load(stateDir, destDir)
         }
+        outputWriter.manifest = outputs.next(complete)
     }
 
-    private static void ensureFile(File f) throws IOException {
+    /**
+     * Deletes the outputs no source produces anymore and any temporary files left behind, and saves the output manifest
+     * along with the list of changed outputs.  If any file timed out, nothing is deleted: its output simply wasn't written this time.
+     */
+    private void saveOutputs() {
+        OutputManifest current = outputWriter.manifest
+        if (timeouts.isEmpty()) {
+            int pruned = current.prune(destDir)
+            if (pruned > 0) {
+                log.info("Deleted {} output file(s) no longer produced by any source file.", pruned)
+            }
+        } else {
+            current.retainAll()
+        }
+        outputWriter.deleteTemporaryFiles(destDir)
+        current.save(stateDir, destDir)
+        outputs = current
+    }
+
+    /**
+     * Writes the Velocity profile, accumulated over all builds and updates so far, if profiling is enabled.
+     */
+    private void saveVelocityProfile() {
+        if (velocityProfiler != null) {
+            velocityProfiler.write(velocityProfileFile)
+        }
+    }
+
+    private File getManifestFile() {
+        return new File(stateDir, BuildManifest.DEFAULT_FILE_NAME)
+    }
+
+    private File getRenderCostsFile() {
+        return new File(stateDir, RenderCosts.DEFAULT_FILE_NAME)
+    }
+
+    private void renderAll(List<SourceFile> files) throws IOException {
+        timeouts.clear()
+        templateHashes.clear() //templates may have changed since the last build or update
+        //files are copied on their own threads (even if rendering is serial), see write(RenderJob):
+        copyExecutor = new CopyExecutor(Math.max(MIN_IO_THREADS, jobs), MAX_QUEUED_COPIES)
+        try {
+            if (jobs > 1) {
+                //most expensive first, so the build doesn't end waiting for one huge page that happened to start last:
+                renderConcurrently(renderCosts != null ? renderCosts.longestFirst(files) : files)
+            } else {
+                for (SourceFile f : files) {
+                    renderFileOrFail(f)
+                }
+            }
+            copyExecutor.await()
+        } finally {
+            copyExecutor.close()
+        }
+        if (jobs > 1) {
+            renderCosts?.save(getRenderCostsFile())
+        }
+    }
+
+    /**
+     * Returns the relative paths of the source files that used the specified template, {@code #parse} or
+     * {@code #include} target when they were last rendered, or {@code null} if the file isn't known to be used by any
+     * source file (or no manifest is available).
+     */
+    private Set<String> getDependents(File f) {
+        if (manifest == null) {
+            return null
+        }
+        for (String template : manifest.templates) {
+            if (normalize(new File(template)) == f) {
+                return manifest.getDependents(template)
+            }
+        }
+        return null
+    }
+
+    private boolean isTemplate(File f) {
+        Set<String> templates = new LinkedHashSet<>()
+        if (config.get('template')) {
+            templates << (config.get('template') as String)
+        }
+        Object patterns = config.get('patterns')
+        if (patterns instanceof Map) {
+            for (Object patternConfig : (patterns as Map).values()) {
+                if (patternConfig instanceof Map && (patternConfig as Map).get('template')) {
+                    templates << ((patternConfig as Map).get('template') as String)
+                }
+            }
+        }
+        for (String template : templates) {
+            if (normalize(new File(template)) == f) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private boolean isState(File f) {
+        return normalize(f).toPath().startsWith(normalize(stateDir).toPath())
+    }
+
+    private static File normalize(File f) {
+        return f.toPath().toAbsolutePath().normalize().toFile()
+    }
+
+    /**
+     * Renders the specified files on a {@link RenderPipeline}: source files are read ahead on I/O threads, rendered by
+     * up to {@link #jobs} threads and written out on I/O threads again, so slow disks don't leave the render threads
+     * idle.  Each file is rendered independently to its own destination file, so the resulting output is identical to
+     * a serial build.  If any file fails, the remaining files are skipped and the first failure is rethrown.
+     */
+    private void renderConcurrently(List<SourceFile> files) throws IOException {
+
+        int ioThreads = Math.max(MIN_IO_THREADS, jobs * 2)
+        RenderPipeline pipeline = new RenderPipeline(ioThreads, jobs, (jobs + ioThreads) * 4,
+                RenderPipeline.DEFAULT_MAX_IN_FLIGHT_BYTES)
+        try {
+            for (SourceFile f : files) {
+                pipeline.submit(f.size, readTask(pipeline, f))
+            }
+            pipeline.await()
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    //the task factories are methods (rather than inline closures) so each task captures its own file or job
+
+    private RenderPipeline.Task readTask(final RenderPipeline pipeline, final SourceFile f) {
+        return {
+            BuildStats.Span span = stats?.begin(BuildStats.Phase.READ)
+            RenderJob job = null
+            try {
+                job = plan(f)
+                if (job != null) {
+                    read(job)
+                }
+            } catch (Exception e) {
+                job?.release()
+                fail(f, e)
+                return
+            } finally {
+                span?.end()
+            }
+            if (job == null) {
+                return //skipped or up to date
+            }
+            if (job.rendering) {
+                pipeline.render(renderTask(pipeline, job))
+            } else {
+                pipeline.write(writeTask(job))
+            }
+        } as RenderPipeline.Task
+    }
+
+    private RenderPipeline.Task renderTask(final RenderPipeline pipeline, final RenderJob job) {
+        return {
+            BuildStats.Span span = stats?.beginFile(job.source.relativePath)
+            try {
+                renderJob(job)
+            } catch (Exception e) {
+                job.release()
+                fail(job.source, e)
+                return
+            } finally {
+                span?.end()
+            }
+            pipeline.write(writeTask(job))
+        } as RenderPipeline.Task
+    }
+
+    private RenderPipeline.Task writeTask(final RenderJob job) {
+        return {
+            BuildStats.Span span = stats?.begin(BuildStats.Phase.WRITE)
+            try {
+                write(job)
+            } catch (Exception e) {
+                job.release()
+                fail(job.source, e)
+            } finally {
+                span?.end()
+            }
+        } as RenderPipeline.Task
+    }
+
+    private RenderPipeline.Task copyTask(final RenderJob job, final String destRelPath) {
+        return {
+            SourceFile source = job.source
+            BuildStats.Span span = stats?.begin(BuildStats.Phase.COPY)
+            try {
+                copy(source, job.pattern, destRelPath, job.copyMode)
+            } catch (Exception e) {
+                fail(source, e)
+                return
+            } finally {
+                span?.end()
+            }
+            record(source, job.pattern, job.configHash, job.rendererNames, job.templates, destRelPath)
+            if (job.action == 'copy') {
+                renderCosts?.put(source.relativePath, 0) //copied files never occupy a render thread
+            }
+            job.event.setOutputSize(source.size).commit()
+        } as RenderPipeline.Task
+    }
+
+    private void renderFileOrFail(SourceFile f) throws IOException {
+        BuildStats.Span span = stats?.beginFile(f.relativePath)
+        try {
+            renderFile(f);
+        } catch (Exception e) {
+            fail(f, e)
+        } finally {
+            span?.end()
+        }
+    }
+
+    /**
+     * Handles a file that could not be rendered: a timeout is recorded to be reported once the build is done, anything
+     * else fails the build.
+     */
+    private void fail(SourceFile f, Exception e) throws IOException {
+        RenderTimeoutException timeout = RenderBudget.getTimeout(e)
+        if (timeout != null) {
+            //one pathological file shouldn't hold up the rest of the build - report it once the build is done:
+            timeouts << timeout
+            return
+        }
+        throw new IOException("Unable to render file $f: ${e.message}", e)
+    }
+
+    /**
+     * Fails the build if any file exceeded its render budget (without a fallback), naming every such file.
+     */
+    private void checkTimeouts() throws IOException {
+        if (timeouts.isEmpty()) {
+            return
+        }
+        List<String> names = timeouts.collect { "${it.name} (${it.millis} ms)" as String }.sort()
+        throw new IOException("${names.size()} file(s) could not be rendered within their renderTimeout: " +
+                names.join(', '))
+    }
+
+    private void ensureDirectory(File f) throws IOException {
         if (f.exists()) {
-            if (f.isDirectory()) {
-                throw new IllegalStateException("File " + f + " was expected to be a file, not a directory.");
+            if (!f.isDirectory()) {
+                throw new IllegalArgumentException("Specified file " + f + " is not a directory.");
             }
             return;
         }
 
-        f.getParentFile().mkdirs();
-        f.createNewFile();
+        if (!f.mkdirs()) {
+            throw new IOException("Unable to create directory " + f);
+        }
     }
 
     private static String getRelativePath(File parent, File child) {
@@ -190,70 +759,160 @@ class DefaultProcessor implements Processor {
             return false;
         }*/
 
-        //only forcefully exclude the destDir (we require this so we avoid infinite recursion).
+        //only forcefully exclude the destDir (we require this so we avoid infinite recursion) and the stateDir.
         //We don't however forcefully exclude the scms config and/or templatesDir in the produced
         //site in case the user wants to allow site viewers to see this information, e.g.
         //an open source community site might want to show their config and templates to help others.
 
-        if (absPath.startsWith(destDir.getAbsolutePath())) {
+        if (absPath.startsWith(destDir.getAbsolutePath()) || isState(f)) {
             return false;
         }
 
         //now check excluded patterns:
         String relPath = getRelativePath(sourceDir, f);
 
-        if (config.excludes instanceof Collection) {
-            for (String pattern : config.excludes) {
-                if (patternMatcher.matches(pattern, relPath)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return excludeSet.indexOf(relPath) < 0;
     }
 
-    @SuppressWarnings("unchecked")
-    private void recurse(File dir) throws IOException {
+    /**
+     * Walks the specified directory, creating the corresponding destination directories along the way and collecting
+     * every included file (in traversal order) into {@code files} to be rendered.
+     * <p/>
+     * Each entry's attributes are read exactly once during the walk, and relative paths are built up from the parent
+     * directory's path rather than re-derived from absolute paths.  An excluded directory is pruned before it is
+     * opened, so nothing beneath it (e.g. a vendored {@code node_modules/**} tree) is ever visited.
+     */
+    private void walk(File dir, List<SourceFile> files) throws IOException {
+
+        final Path root = dir.toPath()
+        final Path destPath = destDir.toPath().toAbsolutePath().normalize()
+        final Path statePath = stateDir.toPath().toAbsolutePath().normalize()
+        final Path configPath = configFile.toPath().toAbsolutePath().normalize()
+        final String rootRelPath = dir == sourceDir ? '' : getRelativePath(sourceDir, dir)
+        final Deque<String> relDirPaths = new ArrayDeque<>()
+
+        BuildStats.Span span = stats?.begin(BuildStats.Phase.WALK)
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+                @Override
+                FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (path == root) {
+                        relDirPaths.push(rootRelPath)
+                        return FileVisitResult.CONTINUE
+                    }
+                    String relPath = childPath(relDirPaths.peek(), path)
+                    if (isExcluded(path, relPath)) {
+                        return FileVisitResult.SKIP_SUBTREE
+                    }
+                    outputWriter.createDirectories(new File(destDir, relPath))
+                    relDirPaths.push(relPath)
+                    return FileVisitResult.CONTINUE
+                }
 
-        File[] files = dir.listFiles();
-        if (files == null) {
-            return;
-        }
+                @Override
+                FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    String relPath = childPath(relDirPaths.peek(), path)
+                    if (!isExcluded(path, relPath)) {
+                        files << new SourceFile(path.toFile(), relPath, attrs)
+                    }
+                    return FileVisitResult.CONTINUE
+                }
 
-        for (final File f : files) {
+                @Override
+                FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                    //unreadable entries and symbolic link cycles are skipped, as File.listFiles() would
+                    return FileVisitResult.CONTINUE
+                }
 
-            if (f.equals(destDir) || !isIncluded(f)) {
-                continue;
-            }
+                @Override
+                FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
+                    relDirPaths.pop()
+                    return FileVisitResult.CONTINUE
+                }
 
-            if (f.isDirectory()) {
-                String relPath = getRelativePath(sourceDir, f);
-                File copiedDir = new File(destDir, relPath);
-                ensureDirectory(copiedDir);
-                recurse(f);
-            } else {
-                try {
-                    renderFile(f);
-                } catch (Exception e) {
-                    throw new IOException("Unable to render file $f: ${e.message}")
+                private String childPath(String relDirPath, Path path) {
+                    String name = path.fileName.toString()
+                    return relDirPath.isEmpty() ? name : relDirPath + File.separator + name
                 }
-            }
+
+                private boolean isExcluded(Path path, String relPath) {
+                    //normalized like destPath, statePath and configPath, e.g. when the source directory is '.':
+                    Path absPath = path.toAbsolutePath().normalize()
+                    if (absPath.startsWith(destPath) || absPath.startsWith(statePath) || absPath == configPath) {
+                        return true
+                    }
+                    BuildStats.Span matchSpan = BuildStats.start(BuildStats.Phase.MATCH)
+                    try {
+                        return excludeSet.indexOf(relPath) >= 0
+                    } finally {
+                        matchSpan.end()
+                    }
+                }
+            })
+        } finally {
+            span?.end()
         }
     }
 
-    private void renderFile(File f) throws IOException {
+    /**
+     * Renders (or copies) a single source file on the calling thread.
+     */
+    private void renderFile(SourceFile source) throws IOException {
+        RenderJob job = plan(source)
+        if (job == null) {
+            return
+        }
+        renderJob(job)
+        BuildStats.Span span = BuildStats.start(BuildStats.Phase.WRITE)
+        try {
+            write(job)
+        } finally {
+            span.end()
+        }
+    }
 
-        String relPath = getRelativePath(sourceDir, f);
+    /**
+     * Determines what to do with the specified source file: its pattern, configuration and model, and whether it is
+     * skipped, copied or rendered (and if so, by which renderers and to which output path).  Returns {@code null} if
+     * there is nothing to do because the file is skipped or up to date.
+     */
+    private RenderJob plan(SourceFile source) throws IOException {
 
-        Map<String, Object> config = (Map<String, Object>) deepcopy(this.config as Map)
+        String relPath = source.relativePath
+        BuildEvent event = BuildEvent.renderFile(relPath).setInputSize(source.size)
 
-        Map<String, Object> model = [:]
+        //first match always wins:
+        BuildStats.Span matchSpan = BuildStats.start(BuildStats.Phase.MATCH)
+        Rule rule = getRule(relPath)
+        matchSpan.end()
+        event.setPattern(rule.pattern)
 
-        if (config.containsKey('model') && config.model instanceof Map) {
-            model = config.model as Map
-        } else {
-            config.model = model
+        String action = rule.action
+        String matchedPattern = rule.pattern
+
+        if (action == 'skip') {
+            return null;
+        }
+
+        String configHash = null
+        if (manifest != null) {
+            configHash = patternConfigHash(matchedPattern)
+            if (configHash != null && isUpToDate(source, matchedPattern, configHash)) {
+                return null;
+            }
+        }
+
+        RenderJob job = new RenderJob(source: source, action: action, pattern: matchedPattern, configHash: configHash,
+                event: event, copyMode: rule.copyMode)
+
+        if (action == 'copy') {
+            return job;
+        }
+
+        Map globalModel = Collections.emptyMap()
+        if (this.config.get('model') instanceof Map) {
+            globalModel = this.config.get('model') as Map
         }
 
         String relDirPath = getRelativeDirectoryPath(relPath);
@@ -262,62 +921,134 @@ class DefaultProcessor implements Processor {
             relDirPath = ".";
         }
 
-        model.root = relDirPath
+        //layered views instead of copies - the shared config and models are never modified.  Note that the map
+        //lookups use get() rather than property access: ConfigObject property access creates missing keys.
+        Map<String, Object> model = new LayeredMap<String, Object>([rule.patternModel, [root: relDirPath], globalModel])
+        Map<String, Object> config = new LayeredMap<String, Object>([rule.patternConfig, this.config])
+        config.model = model
+        job.model = model
+        job.config = config
+
+        //otherwise we need to render with the renderer chain (if any) and template (if any) for files of this shape:
+        String extensions = getExtensions(relPath)
+        ChainPlan chainPlan = getChainPlan(rule, extensions, config)
+        String stem = relPath.substring(0, relPath.length() - extensions.length())
+        job.chain = chainPlan.chain
+        job.chainPaths = chainPlan.suffixes.collect { stem + it }
+        job.destRelPath = stem + chainPlan.destSuffix
+        job.template = rule.template
+        job.templateRenderer = rule.templateRenderer
+        job.rendererNames = chainPlan.rendererNames
+        if (job.templateRenderer && manifest != null) {
+            job.templates[job.template] = templateHash(job.template)
+        }
+        event.setRenderer(job.rendererNames.join(','))
 
-        Map patterns = Collections.emptyMap()
+        if (renderCache != null) {
+            job.cacheKey = renderCacheKey(source, matchedPattern, relDirPath, job.destRelPath, job.rendererNames)
+            RenderCache.Entry cached = job.cacheKey != null ? renderCache.get(job.cacheKey) : null
+            if (cached != null && isCurrent(cached.templates)) {
+                job.cached = cached
+            }
+        }
 
-        if (config.containsKey('patterns')) {
-            assert config.patterns instanceof Map: "scms.patterns must be a map"
-            patterns = config.patterns
+        return job
+    }
+
+    /**
+     * Returns the path, relative to the destination directory, that the source file at the specified relative path is
+     * rendered or copied to, or {@code null} if it is skipped.  Unlike {@link #plan}, this doesn't need the file.
+     */
+    private String getDestRelPath(String relPath) {
+        Rule rule = getRule(relPath)
+        if (rule.action == 'skip') {
+            return null
+        }
+        if (rule.action == 'copy') {
+            return relPath
         }
+        String extensions = getExtensions(relPath)
+        Map config = new LayeredMap<String, Object>([rule.patternConfig, this.config])
+        ChainPlan chainPlan = getChainPlan(rule, extensions, config)
+        return relPath.substring(0, relPath.length() - extensions.length()) + chainPlan.destSuffix
+    }
 
-        String action = 'render' //default unless overridden
+    /**
+     * Returns the rule of the first pattern that matches the specified path, or the default rule if none does.  Rules
+     * are resolved once per pattern (and configuration) rather than once per file.
+     */
+    private Rule getRule(String relPath) {
+        int patternIndex = patternSet.indexOf(relPath)
+        Rule rule = rules.get(patternIndex)
+        if (rule == null) {
+            rule = createRule(patternIndex)
+            Rule existing = rules.putIfAbsent(patternIndex, rule)
+            if (existing != null) {
+                rule = existing
+            }
+        }
+        return rule
+    }
 
-        for (Map.Entry<String, ?> patternEntry : patterns.entrySet()) {
+    private Rule createRule(int patternIndex) {
+        Rule rule = new Rule()
 
-            String pattern = patternEntry.getKey();
+        if (patternIndex >= 0) {
+            assert this.config.get('patterns') instanceof Map: "scms.patterns must be a map"
+            String pattern = patternSet.patterns[patternIndex]
+            def patternValue = (this.config.get('patterns') as Map).get(pattern)
+            assert patternValue instanceof Map: "Entry for pattern '$pattern' must be a map."
+            rule.pattern = pattern
+            rule.patternConfig = patternValue as Map
 
-            if (patternMatcher.matches(pattern, relPath)) {
+            //pattern-specific model
+            if (rule.patternConfig.get('model') instanceof Map) {
+                rule.patternModel = rule.patternConfig.get('model') as Map
+            }
 
-                assert patternEntry.value instanceof Map: "Entry for pattern '$pattern' must be a map."
-                Map patternConfig = patternEntry.value as Map
-                config << patternConfig
+            if (rule.patternConfig.containsKey('render')) {
+                rule.action = rule.patternConfig.get('render')
+            }
+        }
 
-                //pattern-specific model
-                if (patternConfig.model && patternConfig.model instanceof Map) {
-                    model << (patternConfig.model as Map)
-                }
+        Map config = new LayeredMap<String, Object>([rule.patternConfig, this.config])
+        if (config.template) { //a template will be used to render the contents
+            rule.template = config.template as String
+            rule.templateRenderer = getRenderer(rule.template)
+        }
+        rule.copyMode = FileCopier.Mode.fromString(config.copyMode as String)
 
-                if (patternConfig.containsKey('render')) {
-                    action = patternConfig.render
-                }
+        return rule
+    }
 
-                break; //stop pattern iteration - first match always wins
+    /**
+     * Returns the renderer chain, and the paths it produces, for files of the specified rule whose names end with the
+     * specified extensions.  Every such file is rendered the same way, so the chain is only determined once.
+     */
+    private ChainPlan getChainPlan(Rule rule, String extensions, Map config) {
+        ChainPlan chainPlan = rule.chainPlans.get(extensions)
+        if (chainPlan == null) {
+            chainPlan = createChainPlan(rule, extensions, config)
+            ChainPlan existing = rule.chainPlans.putIfAbsent(extensions, chainPlan)
+            if (existing != null) {
+                chainPlan = existing
             }
         }
-        config.model = model
+        return chainPlan
+    }
 
-        if (action == 'skip') {
-            return;
-        } else if (action == 'copy') {
-            File destFile = new File(destDir, relPath);
-            ensureFile(destFile);
-            copy(f, destFile);
-            return;
-        }
+    private ChainPlan createChainPlan(Rule rule, String extensions, Map config) {
+
+        List<Renderer> chain = []
+        List<String> suffixes = []
 
-        //otherwise we need to render:
-        Reader content = null
-        String destRelPath = relPath; //assume same unless it is itself a template
+        String destRelPath = PLACEHOLDER_STEM + extensions; //assume same unless it is itself a template
 
         Renderer renderer = getRenderer(config, destRelPath)
 
         while (renderer) {
 
             String extension = getExtension(destRelPath)
-            if (content == null) {
-                content = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)
-            }
             destRelPath = destRelPath.substring(0, destRelPath.length() - (extension.length() + 1))
 
             String destExtension = (renderer instanceof FileRenderer) ? renderer.outputFileExtension : extension;
@@ -333,74 +1064,401 @@ class DefaultProcessor implements Processor {
                 destRelPath += ".$destExtension"
             }
 
-            content = render(renderer, model, destRelPath, content)
+            chain << renderer
+            suffixes << destRelPath.substring(PLACEHOLDER_STEM.length())
             renderer = nextRenderer
         }
 
-        if (config.template) { //a template will be used to render the contents
-            String template = config.template as String
-            renderer = getRenderer(template)
-            if (renderer) {
-                if (content == null) {
-                    content = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)
+        List<String> rendererNames = chain.collect { it.getClass().name }
+        if (rule.templateRenderer) {
+            rendererNames << rule.templateRenderer.getClass().name
+        }
+
+        return new ChainPlan(chain: chain.asImmutable(), suffixes: suffixes.asImmutable(),
+                destSuffix: destRelPath.substring(PLACEHOLDER_STEM.length()), rendererNames: rendererNames.asImmutable())
+    }
+
+    /**
+     * Returns all extensions of the path's file name, e.g. {@code .md.vtl} for {@code a.b/index.md.vtl}, or an empty
+     * string if the file name has none.
+     */
+    private static String getExtensions(String path) {
+        int nameStart = Math.max(path.lastIndexOf((int) ('/' as char)), path.lastIndexOf((int) File.separatorChar)) + 1
+        int i = path.indexOf((int) ('.' as char), nameStart)
+        return i >= 0 ? path.substring(i) : ''
+    }
+
+    /**
+     * Reads the content of a file that is about to be rendered into memory.  Concurrent builds do this ahead of
+     * rendering, so that rendering doesn't block on disk I/O.
+     */
+    private void read(RenderJob job) throws IOException {
+        if (!job.rendering || job.input != null || (job.chain.isEmpty() && job.templateRenderer == null)) {
+            return
+        }
+        job.input = readSource(job.source.file)
+    }
+
+    /**
+     * Renders the job's content, unless the file is copied or its output was found in the render cache.  A file that
+     * exceeds its render budget is rendered as preformatted text if its config asks for that fallback.
+     */
+    private void renderJob(RenderJob job) throws IOException {
+        if (!job.rendering) {
+            return
+        }
+
+        long budgetMillis = job.config.renderTimeout ? job.config.renderTimeout as long : 0
+        RenderBudget budget = budgetMillis > 0 ? RenderBudget.start(job.source.relativePath, budgetMillis) : null
+        //every template, #parse and #include target actually used, for the manifest and the render cache:
+        TemplateDependencies dependencies = manifest != null || job.cacheKey != null ? TemplateDependencies.start() : null
+        long start = System.nanoTime()
+        try {
+            read(job) //unless read ahead
+            job.content = renderContent(job)
+            renderCosts?.put(job.source.relativePath, System.nanoTime() - start)
+        } catch (Exception e) {
+            RenderTimeoutException timeout = RenderBudget.getTimeout(e)
+            if (timeout == null || job.config.renderTimeoutFallback != 'pre') {
+                throw e
+            }
+            log.warn("{} Rendering it as preformatted text instead.", timeout.message)
+            job.content = renderPreformatted(job.source.file)
+            job.fallback = true
+        } finally {
+            budget?.end()
+            dependencies?.end()
+            job.input?.release()
+            job.input = null
+        }
+
+        if (dependencies != null) {
+            job.dependencies = dependencies.names
+            if (manifest != null) {
+                for (String name : dependencies.names) {
+                    job.templates[name] = templateHash(name)
                 }
-                model.content = content.getText()
-                content = Files.newBufferedReader(new File(template).toPath(), StandardCharsets.UTF_8)
-                content = render(renderer, model, destRelPath, content)
             }
         }
+    }
+
+    /**
+     * Writes the job's output - the rendered content, the cached output or a copy of the source file - and records it
+     * in the manifest and the render cache.  Copies are handed to the {@link CopyExecutor}, which records them once
+     * they are done.
+     */
+    private void write(RenderJob job) throws IOException {
 
-        File destFile = new File(destDir, destRelPath);
-        ensureFile(destFile);
+        SourceFile source = job.source
 
-        if (content != null) {
-            //write out the rendered content to the destination file:
-            BufferedWriter writer = new BufferedWriter(new FileWriter(destFile));
-            copy(content, writer)
-            content.close()
-            writer.close()
-        } else {
-            //just copy the file over:
-            copy(f, destFile);
+        if (job.action == 'copy') {
+            copyExecutor.submit(copyTask(job, source.relativePath))
+            return;
+        }
+
+        File destFile = new File(destDir, job.destRelPath);
+
+        if (job.cached != null) {
+            long size = outputWriter.write(destDir, job.destRelPath, job.cached.read())
+            job.templates.putAll(job.cached.templates)
+            record(source, job.pattern, job.configHash, job.rendererNames, job.templates, job.destRelPath)
+            job.event.setOutputSize(size).commit()
+            return
+        }
+
+        RenderBuffer content = job.content
+        job.content = null
+        if (content == null) {
+            //nothing to render - just copy the file over:
+            copyExecutor.submit(copyTask(job, job.destRelPath))
+            return
         }
+
+        //write out the rendered content to the destination file:
+        job.event.setOutputSize(outputWriter.write(destDir, job.destRelPath, content.toCharBuffer()))
+        content.release()
+
+        if (!job.fallback) { //a fallback is never up to date - the next incremental build tries again
+            record(source, job.pattern, job.configHash, job.rendererNames, job.templates, job.destRelPath)
+            if (job.cacheKey != null) {
+                cacheOutput(job.cacheKey, job.dependencies, destFile)
+            }
+        }
+        job.event.commit()
     }
 
-    def Map deepcopy(Map map) {
-        if (map == null) {
-            return null
+    /**
+     * Renders the source file through the renderer chain and then the template (if any), returning the rendered
+     * content or {@code null} if there was nothing to render.  Each renderer's output is kept in a pooled buffer that
+     * the next renderer (or the destination file) reads directly, so no intermediate strings are created.
+     */
+    private RenderBuffer renderContent(RenderJob job) throws IOException {
+
+        File f = job.source.file
+        RenderBuffer content = null
+
+        for (int i = 0; i < job.chain.size(); i++) {
+            Renderer renderer = job.chain[i]
+            BuildEvent event = BuildEvent.render(job.chainPaths[i]).setPattern(job.pattern)
+                    .setRenderer(renderer.getClass().name).setInputSize(content != null ? content.size() : f.length())
+            Reader input = content != null ? content.reader : job.input.reader
+            RenderBuffer output = render(renderer, job.model, job.chainPaths[i], input)
+            event.setOutputSize(output.size()).commit()
+            content?.release()
+            content = output
         }
-        Map copy = [:]
-        for (Map.Entry e : map.entrySet()) {
-            Object value = e.value
-            if (value instanceof Collection) {
-                value = deepcopy(value as Collection)
+
+        if (job.templateRenderer) {
+            if (content == null) {
+                content = job.input //hand it over instead of copying it
+                job.input = null
             }
-            if (value instanceof Map) {
-                value = deepcopy(value as Map)
+            Map<String, Object> model = job.model
+            //written by Velocity straight from the buffer to the template's output:
+            model.content = new RenderedContent(content)
+            BuildEvent event = BuildEvent.render(job.destRelPath).setPattern(job.pattern)
+                    .setRenderer(job.templateRenderer.getClass().name).setInputSize(content.size())
+            RenderBuffer output
+            if (job.templateRenderer instanceof VelocityRenderer) {
+                //loaded by name so the parsed template is cached instead of re-parsed for every page:
+                output = renderTemplate((VelocityRenderer) job.templateRenderer, model, job.template)
+            } else {
+                RenderBuffer templateSource = readSource(new File(job.template))
+                output = render(job.templateRenderer, model, job.destRelPath, templateSource.reader)
+                templateSource.release()
             }
-            copy[e.key] = value
+            event.setOutputSize(output.size()).commit()
+            content.release()
+            content = output
         }
-        return copy
+
+        return content
     }
 
-    def List deepcopy(Collection list) {
-        if (list == null) {
-            return list;
+    /**
+     * Returns a buffer with the content of the specified file, to be released by whoever consumes it last.
+     */
+    private RenderBuffer readSource(File f) throws IOException {
+        RenderBuffer buffer = RenderBuffer.acquire()
+        BuildStats.Span span = BuildStats.start(BuildStats.Phase.READ)
+        try {
+            sourceReader.read(f, buffer)
+        } finally {
+            span.end()
+        }
+        return buffer
+    }
+
+    /**
+     * Returns the source file's content, HTML-escaped inside a {@code <pre>} element.  Used as the output of a file that
+     * could not be rendered within its budget when {@code renderTimeoutFallback = 'pre'}.
+     */
+    private RenderBuffer renderPreformatted(File f) throws IOException {
+        String text = sourceReader.readString(f)
+        RenderBuffer buffer = RenderBuffer.acquire()
+        buffer.write('<pre>')
+        buffer.write(text.replace('&', '&amp;').replace('<', '&lt;').replace('>', '&gt;'))
+        buffer.write('</pre>\n')
+        return buffer
+    }
+
+    /**
+     * Returns {@code true} if the previous incremental build rendered the specified source file from exactly the
+     * inputs that would be used now - the same source content, configuration and templates - and its output still
+     * exists, {@code false} otherwise.  An up-to-date entry is carried over into the new manifest.
+     */
+    private boolean isUpToDate(SourceFile source, String pattern, String configHash) {
+
+        BuildManifest.Entry prev = previousManifest.get(source.relativePath)
+
+        if (prev == null || prev.pattern != pattern || prev.configHash != configHash || prev.outputPath == null) {
+            return false
+        }
+        if (!new File(destDir, prev.outputPath).exists()) {
+            return false
+        }
+        for (Map.Entry<String, String> t : prev.templates.entrySet()) {
+            if (templateHash(t.key) != t.value) {
+                return false
+            }
+        }
+
+        if (source.size != prev.size) {
+            return false
+        }
+        long lastModified = source.lastModified
+        if (lastModified != prev.lastModified) {
+            //touched but possibly not modified (e.g. a fresh checkout) - only the content hash can tell:
+            if (source.hash != prev.hash) {
+                return false
+            }
+            prev.lastModified = lastModified
+        }
+
+        manifest.put(prev)
+        outputWriter.manifest?.retain(prev.outputPath)
+        return true
+    }
+
+    private void record(SourceFile source, String pattern, String configHash,
+                        List<String> rendererNames, Map<String, String> templates, String outputPath) {
+        if (manifest == null) {
+            return
+        }
+        BuildManifest.Entry entry = new BuildManifest.Entry(source.relativePath)
+        entry.size = source.size
+        entry.lastModified = source.lastModified
+        entry.hash = source.hash
+        entry.pattern = pattern
+        entry.configHash = configHash
+        entry.renderers = rendererNames
+        entry.templates = templates
+        entry.outputPath = outputPath
+        manifest.put(entry)
+    }
+
+    /**
+     * Returns the key of the specified file's {@link RenderCache} entry: a hash of everything that determines the
+     * rendered output except the templates, which are checked separately (see {@link #isCurrent}).  That includes the
+     * versions of scms and the renderer libraries (see {@link Version#of}), and the effective configuration, which
+     * includes the model.  The relative directory is included for the model's {@code root} value.
+     * Returns {@code null} if the configuration cannot be fingerprinted, so the file's output is never cached.
+     */
+    private String renderCacheKey(SourceFile source, String pattern, String relDirPath, String destRelPath,
+                                  List<String> rendererNames) {
+        String configHash = patternConfigHash(pattern)
+        if (configHash == null) {
+            return null
+        }
+        StringBuilder sb = new StringBuilder(RENDER_CACHE_KEY_VERSION)
+        sb.append('\n').append(RENDERER_VERSIONS)
+        sb.append('\n').append(source.hash)
+        sb.append('\n').append(configHash)
+        sb.append('\n').append(relDirPath)
+        sb.append('\n').append(destRelPath)
+        sb.append('\n').append(rendererNames.join(','))
+        return Digests.sha256(sb.toString())
+    }
+
+    /**
+     * Returns {@code true} if all of the specified templates still have the specified hashes.
+     */
+    private boolean isCurrent(Map<String, String> templates) {
+        for (Map.Entry<String, String> t : templates.entrySet()) {
+            if (templateHash(t.key) != t.value) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private void cacheOutput(String cacheKey, Collection<String> templateNames, File output) {
+        Map<String, String> templates = new LinkedHashMap<>()
+        for (String name : templateNames) {
+            templates[name] = templateHash(name)
+        }
+        try {
+            renderCache.put(cacheKey, templates, output)
+        } catch (IOException e) {
+            //the cache only makes builds faster, it must never fail them:
+            log.warn("Unable to cache the rendered output of {}: {}", output, e.message)
+        }
+    }
+
+    /**
+     * Returns a fingerprint of the configuration that applies to files matching the specified pattern: the global
+     * (non-pattern) configuration and velocimacro library combined with that pattern's own config block.  Returns {@code null} if either
+     * contains a value that cannot be fingerprinted (see {@link #appendFingerprint}), in which case the files are
+     * always rendered.
+     */
+    private String patternConfigHash(String pattern) {
+        if (globalConfigHash == null) {
+            String hash = fingerprint(config.findAll { it.key != 'patterns' }, 'the global configuration')
+            //any page may use the macros of the velocimacro library, which isn't recorded as a template:
+            globalConfigHash = hash == UNFINGERPRINTABLE ? hash :
+                    Digests.sha256(hash + templateHash(velocimacroLibrary.path))
         }
-        List copy = []
-        for (Object o : list) {
-            Object value = o;
-            if (o instanceof Collection) {
-                value = deepcopy(o as Collection)
+        String hash
+        if (pattern == null) {
+            hash = globalConfigHash
+        } else {
+            hash = patternConfigHashes.get(pattern)
+            if (hash == null) {
+                String patternHash = fingerprint((config.get('patterns') as Map).get(pattern), "pattern '$pattern'")
+                hash = globalConfigHash == UNFINGERPRINTABLE || patternHash == UNFINGERPRINTABLE ?
+                        UNFINGERPRINTABLE : Digests.sha256(globalConfigHash + patternHash)
+                patternConfigHashes.put(pattern, hash)
             }
-            if (o instanceof Map) {
-                value = deepcopy(o as Map)
+        }
+        return hash == UNFINGERPRINTABLE ? null : hash
+    }
+
+    private String templateHash(String template) {
+        String hash = templateHashes.get(template)
+        if (hash == null) {
+            File f = new File(template)
+            hash = f.isFile() ? Digests.sha256(f) : 'missing'
+            templateHashes.put(template, hash)
+        }
+        return hash
+    }
+
+    /**
+     * Returns a hash of a deterministic string representation of a (possibly nested) configuration value, or
+     * {@link #UNFINGERPRINTABLE} if it contains a value without one.  That is logged once, as the affected files can
+     * then never be skipped or served from the render cache.
+     */
+    private String fingerprint(Object o, String name) {
+        StringBuilder sb = new StringBuilder()
+        Object unfingerprintable = appendFingerprint(sb, o)
+        if (unfingerprintable != null) {
+            if (unfingerprintableWarned.add(name)) {
+                log.warn("The value '{}' ({}) in {} cannot be fingerprinted, so the files it applies to are " +
+                        "always rendered: incremental builds and the render cache only recognize strings, " +
+                        "numbers, booleans, lists and maps.", unfingerprintable, unfingerprintable.getClass().name,
+                        name)
             }
-            copy << value
+            return UNFINGERPRINTABLE
         }
-        return copy
+        return Digests.sha256(sb.toString())
     }
 
+    /**
+     * Appends a deterministic string representation of a (possibly nested) configuration value suitable for hashing.
+     * Only strings, numbers, booleans, characters, enums and lists and maps of them have one: the string
+     * representation of anything else (e.g. a closure) may well differ between runs.  Returns the first such value
+     * found, or {@code null} if there is none.
+     */
+    private static Object appendFingerprint(StringBuilder sb, Object o) {
+        if (o instanceof Map) {
+            sb.append('{')
+            for (Map.Entry e : ((Map) o).entrySet()) {
+                sb.append(e.key).append('=')
+                Object unfingerprintable = appendFingerprint(sb, e.value)
+                if (unfingerprintable != null) {
+                    return unfingerprintable
+                }
+                sb.append(',')
+            }
+            sb.append('}')
+        } else if (o instanceof Collection) {
+            sb.append('[')
+            for (Object item : (Collection) o) {
+                Object unfingerprintable = appendFingerprint(sb, item)
+                if (unfingerprintable != null) {
+                    return unfingerprintable
+                }
+                sb.append(',')
+            }
+            sb.append(']')
+        } else if (o instanceof CharSequence || o instanceof Number || o instanceof Boolean ||
+                o instanceof Character || o instanceof Enum) {
+            sb.append(o instanceof CharSequence ? String.name : o.getClass().name).append(':').append(o.toString())
+        } else if (o != null) {
+            return o
+        }
+        return null
+    }
 
     private boolean hasExtension(String path) {
         return getExtension(path) != null
@@ -420,11 +1478,22 @@ class DefaultProcessor implements Processor {
         return renderersByExtension[extension]
     }
 
+    /**
+     * Returns the renderer for the specified path.  If the config names a {@code renderer} that supports the path
+     * (e.g. {@code renderer = 'flexmark'} for a Markdown file), that renderer is used.  Otherwise the first renderer
+     * that supports the path's extension is used.  Only steps the named renderer supports are affected, so a
+     * {@code .md.vtl} file configured with {@code renderer = 'flexmark'} is still rendered by Velocity first.
+     */
     Renderer getRenderer(Map config, String path) {
-        if ('velocity'.equals(config.renderer)) {
-            return velocityRenderer;
-        } else if ('pegdown'.equals(config.renderer)) {
-            return pegdownRenderer;
+        if (config.renderer) {
+            Renderer named = renderersByName[config.renderer as String]
+            if (named == null) {
+                throw new IllegalStateException("Unknown renderer '${config.renderer}'.  Supported renderers: " +
+                        renderersByName.keySet())
+            }
+            if (!(named instanceof FileRenderer) || ((FileRenderer) named).supports(path)) {
+                return named
+            }
         }
 
         for (Renderer r : renderers) {
@@ -436,31 +1505,122 @@ class DefaultProcessor implements Processor {
         return null
     }
 
-    Reader render(Renderer renderer, Map<String, ?> model, String path, Reader reader) {
+    RenderBuffer render(Renderer renderer, Map<String, ?> model, String path, Reader reader) {
         Resource resource = new DefaultResource(path, reader);
-        StringWriter resultWriter = new StringWriter(8192)
+        RenderBuffer resultWriter = RenderBuffer.acquire()
         RenderRequest request = new DefaultRenderRequest(model, resource, resultWriter)
-        renderer.render(request);
+        BuildStats.Span span = BuildStats.start(getPhase(renderer), renderer.getClass().name)
+        try {
+            if (jobs > 1 && !isThreadSafe(renderer)) {
+                //see the Renderer JavaDoc: renderers that don't declare themselves thread-safe are never shared
+                synchronized (renderer) {
+                    renderer.render(request)
+                }
+            } else {
+                renderer.render(request);
+            }
+        } finally {
+            span.end()
+        }
         reader.close()
-        resultWriter.close()
-        return new StringReader(resultWriter.toString());
+        return resultWriter
+    }
+
+    RenderBuffer renderTemplate(VelocityRenderer renderer, Map<String, ?> model, String template) {
+        RenderBuffer resultWriter = RenderBuffer.acquire()
+        BuildStats.Span span = BuildStats.start(BuildStats.Phase.VELOCITY, renderer.getClass().name)
+        try {
+            renderer.render(template, model, resultWriter)
+        } finally {
+            span.end()
+        }
+        return resultWriter
+    }
+
+    private static BuildStats.Phase getPhase(Renderer renderer) {
+        if (renderer instanceof VelocityRenderer) {
+            return BuildStats.Phase.VELOCITY
+        }
+        if (renderer instanceof PegdownRenderer || renderer instanceof FlexmarkRenderer) {
+            return BuildStats.Phase.MARKDOWN
+        }
+        return BuildStats.Phase.RENDER
+    }
+
+    private static boolean isThreadSafe(Renderer renderer) {
+        return renderer.getClass().isAnnotationPresent(ThreadSafe)
+    }
+
+    private void copy(SourceFile source, String pattern, String destRelPath, FileCopier.Mode mode)
+            throws IOException {
+        BuildEvent event = BuildEvent.copy(source.relativePath).setPattern(pattern)
+                .setInputSize(source.size).setOutputSize(source.size)
+        outputWriter.copy(source.file, destDir, destRelPath, mode)
+        event.commit()
     }
 
     /**
-     * Reads all characters from a Reader and writes them to a Writer.
+     * What applies to every file that matches the same pattern (or no pattern at all).
      */
-    private static long copy(Reader r, Writer w) throws IOException {
-        long nread = 0L;
-        char[] buf = new char[4096];
-        int n;
-        while ((n = r.read(buf)) > 0) {
-            w.write(buf, 0, n);
-            nread += n;
-        }
-        return nread;
+    private static class Rule {
+        String pattern
+        Map patternConfig = Collections.emptyMap()
+        Map patternModel = Collections.emptyMap()
+        String action = 'render' //default unless overridden
+        String template
+        Renderer templateRenderer
+        FileCopier.Mode copyMode = FileCopier.DEFAULT_MODE
+        Map<String, ChainPlan> chainPlans = new ConcurrentHashMap<>() //by file name extensions
+    }
+
+    /**
+     * The renderers that files of one rule and file name extensions are rendered with, and the paths each renderer's
+     * output corresponds to, as the suffixes that replace the file name's extensions.
+     */
+    private static class ChainPlan {
+        List<Renderer> chain
+        List<String> suffixes
+        String destSuffix
+        List<String> rendererNames //including the template's renderer, if any
     }
 
-    private static void copy(File src, File dest) throws IOException {
-        Files.copy(src.toPath(), dest.toPath(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING)
+    /**
+     * A source file on its way through the build: {@link #plan planned}, optionally {@link #read read ahead},
+     * {@link #renderJob rendered} and finally {@link #write written}.  Each step may run on a different thread, but never
+     * concurrently with another step of the same job.
+     */
+    private static class RenderJob {
+        SourceFile source
+        String action
+        String pattern
+        String configHash
+        BuildEvent event
+        FileCopier.Mode copyMode
+        Map<String, Object> model
+        Map<String, Object> config
+        List<Renderer> chain = []
+        List<String> chainPaths = []
+        String destRelPath
+        String template
+        Renderer templateRenderer
+        List<String> rendererNames = []
+        Map<String, String> templates = [:]
+        String cacheKey
+        RenderCache.Entry cached
+        RenderBuffer input //the source file's content, if read ahead
+        RenderBuffer content //the rendered output
+        Set<String> dependencies = Collections.emptySet()
+        boolean fallback
+
+        boolean isRendering() {
+            return action == 'render' && cached == null
+        }
+
+        void release() {
+            input?.release()
+            input = null
+            content?.release()
+            content = null
+        }
     }
 }
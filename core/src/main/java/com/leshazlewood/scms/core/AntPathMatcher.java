@@ -96,6 +96,22 @@ public class AntPathMatcher implements PatternMatcher {
         return doMatch(pattern, path, false);
     }
 
+    /**
+     * Compiles the specified patterns into a single {@link AntPathPatternSet} automaton that matches a path against
+     * all of them in one pass.
+     *
+     * @param patterns the Ant-style patterns to compile, in priority order
+     * @return the compiled pattern set
+     * @since 0.4
+     */
+    @Override
+    public PatternSet compile(Collection<String> patterns) {
+        if (this.pathSeparator.length() != 1) {
+            return PatternMatcher.super.compile(patterns);
+        }
+        return new AntPathPatternSet(patterns, this.pathSeparator);
+    }
+
 
     /**
      * Actually match the given <code>path</code> against the given <code>pattern</code>.
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PatternSet} that compiles any number of Ant-style path patterns into a single automaton.
+ * <p/>
+ * Every pattern is translated into a character-level nondeterministic finite automaton (NFA) where {@code ?} and
+ * {@code *} consume non-separator characters and {@code **} consumes whole path segments.  All of the pattern NFAs are
+ * then run together as one automaton which is lazily converted to a deterministic automaton (DFA) as paths are
+ * matched: each distinct set of active NFA states is computed once and cached along with its transitions.  Matching a
+ * path is therefore a single left-to-right pass over its characters regardless of how many patterns there are or how
+ * many {@code *} and {@code **} wildcards they contain - there is no backtracking.
+ * <p/>
+ * Match results are identical to calling {@link AntPathMatcher#match(String, String)} for each pattern in order.  The
+ * rare inputs the automaton does not model (paths ending with a separator, path segments with leading or trailing
+ * whitespace, which {@code AntPathMatcher} trims, and patterns ending with a separator) are delegated to an
+ * {@code AntPathMatcher}.
+ * <p/>
+ * Instances are immutable apart from the internal DFA cache, which is safe for concurrent use.
+ *
+ * @since 0.4
+ */
+public class AntPathPatternSet implements PatternSet {
+
+    private static final int NONE = -1;
+
+    //upper bound on cached DFA states; beyond this, transitions are still computed but no longer cached:
+    private static final int MAX_CACHED_STATES = 10000;
+
+    private static final int SEPARATOR_CLASS = 0;
+    private static final int OTHER_CLASS = 1;
+
+    private final List<String> patterns;
+    private final String pathSeparator;
+    private final char separator;
+    private final AntPathMatcher fallbackMatcher;
+
+    //indexes of patterns that could not be compiled and are always matched with the fallbackMatcher:
+    private final int[] uncompiled;
+    private final boolean[] absolute;
+
+    //NFA transition tables, indexed by state:
+    private final int[] literal;       // the literal char consumed, or NONE
+    private final int[] literalTarget;
+    private final int[] nonSepTarget;  // target when consuming any non-separator char
+    private final int[] anyTarget;     // target when consuming any char, including a separator
+    private final int[] sepTarget;     // target when consuming a separator
+    private final int[][] epsilon;
+    private final int[] accepts;       // the index of the pattern accepted by a state, or NONE
+    private final int[] startStates;
+
+    //character classes - characters that no pattern uses as a literal all behave identically:
+    private final int[] asciiClasses;
+    private final Map<Character, Integer> nonAsciiClasses;
+    private final char[] classChars;
+
+    private final ConcurrentHashMap<StateSet, DfaState> dfaStates = new ConcurrentHashMap<>();
+    private final DfaState start;
+
+    public AntPathPatternSet(Collection<String> patterns) {
+        this(patterns, AntPathMatcher.DEFAULT_PATH_SEPARATOR);
+    }
+
+    public AntPathPatternSet(Collection<String> patterns, String pathSeparator) {
+        if (pathSeparator == null || pathSeparator.length() != 1) {
+            throw new IllegalArgumentException("pathSeparator must be a single character.");
+        }
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+        this.pathSeparator = pathSeparator;
+        this.separator = pathSeparator.charAt(0);
+        this.fallbackMatcher = new AntPathMatcher();
+        this.fallbackMatcher.setPathSeparator(pathSeparator);
+
+        Builder b = new Builder();
+        List<Integer> uncompiledList = new ArrayList<>();
+        this.absolute = new boolean[this.patterns.size()];
+        for (int i = 0; i < this.patterns.size(); i++) {
+            String pattern = this.patterns.get(i);
+            absolute[i] = pattern.startsWith(pathSeparator);
+            if (!b.add(i, pattern)) {
+                uncompiledList.add(i);
+            }
+        }
+
+        this.uncompiled = toArray(uncompiledList);
+        this.literal = toArray(b.literal);
+        this.literalTarget = toArray(b.literalTarget);
+        this.nonSepTarget = toArray(b.nonSepTarget);
+        this.anyTarget = toArray(b.anyTarget);
+        this.sepTarget = toArray(b.sepTarget);
+        this.accepts = toArray(b.accepts);
+        this.startStates = toArray(b.startStates);
+        this.epsilon = new int[b.epsilon.size()][];
+        for (int i = 0; i < epsilon.length; i++) {
+            epsilon[i] = toArray(b.epsilon.get(i));
+        }
+
+        //assign a character class to every literal char:
+        this.asciiClasses = new int[128];
+        Arrays.fill(asciiClasses, OTHER_CLASS);
+        this.nonAsciiClasses = new HashMap<>();
+        if (separator < 128) {
+            asciiClasses[separator] = SEPARATOR_CLASS;
+        } else {
+            nonAsciiClasses.put(separator, SEPARATOR_CLASS);
+        }
+        List<Character> chars = new ArrayList<>();
+        chars.add(separator);
+        chars.add('\0'); //representative of OTHER_CLASS - never used as a literal since it can't be in a path
+        for (int c : literal) {
+            if (c == NONE || c == 0 || classOf((char) c) != OTHER_CLASS) {
+                continue;
+            }
+            int cls = chars.size();
+            chars.add((char) c);
+            if (c < 128) {
+                asciiClasses[c] = cls;
+            } else {
+                nonAsciiClasses.put((char) c, cls);
+            }
+        }
+        this.classChars = new char[chars.size()];
+        for (int i = 0; i < classChars.length; i++) {
+            classChars[i] = chars.get(i);
+        }
+
+        long[] startSet = new long[words()];
+        for (int s : startStates) {
+            set(startSet, s);
+        }
+        this.start = intern(closure(startSet));
+    }
+
+    @Override
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public int indexOf(String path) {
+        if (requiresFallback(path)) {
+            for (int i = 0; i < patterns.size(); i++) {
+                if (fallbackMatcher.match(patterns.get(i), path)) {
+                    return i;
+                }
+            }
+            return NONE;
+        }
+
+        int index = run(path);
+
+        //an uncompiled pattern still wins if it comes first:
+        int limit = index == NONE ? patterns.size() : index;
+        for (int i : uncompiled) {
+            if (i >= limit) {
+                break;
+            }
+            if (fallbackMatcher.match(patterns.get(i), path)) {
+                return i;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Runs the automaton over the specified path and returns the index of the first compiled pattern it accepts.
+     */
+    private int run(String path) {
+        DfaState state = start;
+        boolean afterSeparator = true; //leading and repeated separators are insignificant, as in AntPathMatcher
+        for (int i = 0, len = path.length(); i < len && !state.dead; i++) {
+            char c = path.charAt(i);
+            int cls;
+            if (c == separator) {
+                if (afterSeparator) {
+                    continue;
+                }
+                afterSeparator = true;
+                cls = SEPARATOR_CLASS;
+            } else {
+                afterSeparator = false;
+                cls = classOf(c);
+            }
+            state = next(state, cls);
+        }
+
+        return path.charAt(0) == separator ? state.firstAbsolute : state.firstRelative;
+    }
+
+    private boolean requiresFallback(String path) {
+        int len = path.length();
+        if (len == 0 || path.charAt(len - 1) == separator) {
+            return true;
+        }
+        //AntPathMatcher trims each path segment:
+        boolean segmentStart = true;
+        for (int i = 0; i < len; i++) {
+            char c = path.charAt(i);
+            if (c == separator) {
+                if (i > 0 && path.charAt(i - 1) <= ' ') {
+                    return true;
+                }
+                segmentStart = true;
+            } else {
+                if (segmentStart && c <= ' ') {
+                    return true;
+                }
+                segmentStart = false;
+            }
+        }
+        return path.charAt(len - 1) <= ' ';
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        Integer cls = nonAsciiClasses.get(c);
+        return cls != null ? cls : OTHER_CLASS;
+    }
+
+    private DfaState next(DfaState state, int cls) {
+        DfaState next = state.transitions[cls];
+        if (next != null) {
+            return next;
+        }
+
+        char c = classChars[cls];
+        long[] targets = new long[words()];
+        long[] states = state.states;
+        for (int w = 0; w < states.length; w++) {
+            long bits = states[w];
+            while (bits != 0) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (cls == SEPARATOR_CLASS) {
+                    setIfPresent(targets, sepTarget[s]);
+                } else {
+                    if (cls != OTHER_CLASS && literal[s] == c) {
+                        setIfPresent(targets, literalTarget[s]);
+                    }
+                    setIfPresent(targets, nonSepTarget[s]);
+                }
+                setIfPresent(targets, anyTarget[s]);
+            }
+        }
+
+        next = intern(closure(targets));
+        if (next.cached) {
+            state.transitions[cls] = next; //benign race: every thread computes the same interned state
+        }
+        return next;
+    }
+
+    private long[] closure(long[] set) {
+        int[] stack = new int[epsilon.length];
+        int size = 0;
+        for (int w = 0; w < set.length; w++) {
+            long bits = set[w];
+            while (bits != 0) {
+                stack[size++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        while (size > 0) {
+            int s = stack[--size];
+            for (int t : epsilon[s]) {
+                if (!isSet(set, t)) {
+                    set(set, t);
+                    stack[size++] = t;
+                }
+            }
+        }
+        return set;
+    }
+
+    private DfaState intern(long[] states) {
+        StateSet key = new StateSet(states);
+        DfaState state = dfaStates.get(key);
+        if (state != null) {
+            return state;
+        }
+        boolean cache = dfaStates.size() < MAX_CACHED_STATES;
+        state = new DfaState(states, cache);
+        if (!cache) {
+            return state;
+        }
+        DfaState existing = dfaStates.putIfAbsent(key, state);
+        return existing != null ? existing : state;
+    }
+
+    private int words() {
+        return (accepts.length + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] set, int i) {
+        return (set[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] set, int i) {
+        set[i >>> 6] |= 1L << i;
+    }
+
+    private static void setIfPresent(long[] set, int i) {
+        if (i != NONE) {
+            set(set, i);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    private final class DfaState {
+
+        private final long[] states;
+        private final DfaState[] transitions;
+        private final int firstRelative;
+        private final int firstAbsolute;
+        private final boolean dead;
+        private final boolean cached;
+
+        private DfaState(long[] states, boolean cached) {
+            this.states = states;
+            this.cached = cached;
+            this.transitions = new DfaState[classChars.length];
+            int relative = NONE;
+            int abs = NONE;
+            boolean empty = true;
+            for (int w = 0; w < states.length; w++) {
+                long bits = states[w];
+                empty &= bits == 0;
+                while (bits != 0) {
+                    int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int p = accepts[s];
+                    if (p == NONE) {
+                        continue;
+                    }
+                    if (absolute[p]) {
+                        abs = abs == NONE ? p : Math.min(abs, p);
+                    } else {
+                        relative = relative == NONE ? p : Math.min(relative, p);
+                    }
+                }
+            }
+            this.firstRelative = relative;
+            this.firstAbsolute = abs;
+            this.dead = empty;
+        }
+    }
+
+    private static final class StateSet {
+
+        private final long[] bits;
+        private final int hash;
+
+        private StateSet(long[] bits) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateSet && Arrays.equals(bits, ((StateSet) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Translates patterns into NFA states.
+     */
+    private final class Builder {
+
+        private final List<Integer> literal = new ArrayList<>();
+        private final List<Integer> literalTarget = new ArrayList<>();
+        private final List<Integer> nonSepTarget = new ArrayList<>();
+        private final List<Integer> anyTarget = new ArrayList<>();
+        private final List<Integer> sepTarget = new ArrayList<>();
+        private final List<List<Integer>> epsilon = new ArrayList<>();
+        private final List<Integer> accepts = new ArrayList<>();
+        private final List<Integer> startStates = new ArrayList<>();
+
+        private int newState() {
+            literal.add(NONE);
+            literalTarget.add(NONE);
+            nonSepTarget.add(NONE);
+            anyTarget.add(NONE);
+            sepTarget.add(NONE);
+            epsilon.add(new ArrayList<Integer>(1));
+            accepts.add(NONE);
+            return accepts.size() - 1;
+        }
+
+        /**
+         * Adds the states for the specified pattern, returning {@code false} if the pattern must be matched by the
+         * fallback matcher instead.
+         */
+        private boolean add(int index, String pattern) {
+            String[] tokens = AntPathMatcher.tokenizeToStringArray(pattern, pathSeparator);
+            if (tokens.length == 0 || pattern.endsWith(pathSeparator)) {
+                return false;
+            }
+
+            int state = newState();
+            startStates.add(state);
+
+            //'state' is always the state in which the next token begins, except after a non-** token, where a
+            //separator must be consumed first:
+            boolean separatorRequired = false;
+
+            for (int i = 0; i < tokens.length; i++) {
+                String token = tokens[i];
+
+                if (separatorRequired) {
+                    int next = newState();
+                    sepTarget.set(state, next);
+                    state = next;
+                }
+
+                if ("**".equals(token)) {
+                    // '**' matches zero or more whole segments: either skip straight to the next token, or consume
+                    // at least one char and then anything up to a separator that begins the next token.
+                    int inSegments = newState();
+                    int next = newState();
+                    nonSepTarget.set(state, inSegments);
+                    anyTarget.set(inSegments, inSegments);
+                    sepTarget.set(inSegments, next);
+                    epsilon.get(state).add(next);
+                    if (onlyDoubleStarsAfter(tokens, i)) {
+                        accepts.set(inSegments, index);
+                    }
+                    state = next;
+                    separatorRequired = false;
+                } else {
+                    for (int j = 0; j < token.length(); j++) {
+                        char c = token.charAt(j);
+                        int next = newState();
+                        if (c == '*') {
+                            nonSepTarget.set(state, state);
+                            epsilon.get(state).add(next);
+                        } else if (c == '?') {
+                            nonSepTarget.set(state, next);
+                        } else {
+                            literal.set(state, (int) c);
+                            literalTarget.set(state, next);
+                        }
+                        state = next;
+                    }
+                    if (onlyDoubleStarsAfter(tokens, i)) {
+                        //e.g. 'foo/**' matches 'foo' itself
+                        accepts.set(state, index);
+                    }
+                    separatorRequired = true;
+                }
+            }
+
+            accepts.set(state, index);
+            return true;
+        }
+
+        private boolean onlyDoubleStarsAfter(String[] tokens, int i) {
+            for (int j = i + 1; j < tokens.length; j++) {
+                if (!"**".equals(tokens[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
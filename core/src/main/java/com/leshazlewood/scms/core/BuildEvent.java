@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+/**
+ * A <a href="https://docs.oracle.com/en/java/javase/11/docs/api/jdk.jfr/jdk/jfr/package-summary.html">Java Flight
+ * Recorder</a> event of a build: rendering a file, a single renderer step, or copying a file.  Each event carries the
+ * file's relative path, the matched pattern, the renderer class(es) and the input and output sizes, so slow pages can
+ * be correlated with GC and I/O in JDK Mission Control, e.g. for a build started with
+ * {@code SCMS_JAVA_OPTS=-XX:StartFlightRecording=filename=build.jfr}.
+ * <p/>
+ * SCMS targets Java 8, but Flight Recorder's event API ({@code jdk.jfr}) is only available on Java 11+ and OpenJDK
+ * 8u262+.  Events are therefore created through the static factory methods, which return an event that does nothing
+ * when the API is not available.  An event is timed from its creation until it is {@link #commit() committed}; an
+ * event that is never committed is discarded.
+ *
+ * @since 0.4
+ */
+public abstract class BuildEvent {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static final BuildEvent NOOP = new BuildEvent() {
+        @Override
+        public BuildEvent setPattern(String pattern) {
+            return this;
+        }
+
+        @Override
+        public BuildEvent setRenderer(String renderer) {
+            return this;
+        }
+
+        @Override
+        public BuildEvent setInputSize(long inputSize) {
+            return this;
+        }
+
+        @Override
+        public BuildEvent setOutputSize(long outputSize) {
+            return this;
+        }
+
+        @Override
+        public void commit() {
+        }
+    };
+
+    /**
+     * Begins an event for rendering (or copying) a single source file, from pattern matching to writing its output.
+     *
+     * @param path the relative path of the source file
+     * @return the begun event.
+     */
+    public static BuildEvent renderFile(String path) {
+        return AVAILABLE ? JfrBuildEvent.newRenderFileEvent(path) : NOOP;
+    }
+
+    /**
+     * Begins an event for a single renderer (or template) step of rendering a file.
+     *
+     * @param path the relative path of the step's output
+     * @return the begun event.
+     */
+    public static BuildEvent render(String path) {
+        return AVAILABLE ? JfrBuildEvent.newRenderEvent(path) : NOOP;
+    }
+
+    /**
+     * Begins an event for copying a file that is not rendered.
+     *
+     * @param path the relative path of the source file
+     * @return the begun event.
+     */
+    public static BuildEvent copy(String path) {
+        return AVAILABLE ? JfrBuildEvent.newCopyEvent(path) : NOOP;
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public abstract BuildEvent setPattern(String pattern);
+
+    public abstract BuildEvent setRenderer(String renderer);
+
+    public abstract BuildEvent setInputSize(long inputSize);
+
+    public abstract BuildEvent setOutputSize(long outputSize);
+
+    /**
+     * Ends the event and writes it to any running recording.
+     */
+    public abstract void commit();
+}
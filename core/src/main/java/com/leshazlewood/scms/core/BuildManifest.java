@@ -0,0 +1,372 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A record of every source file processed by a build and the inputs that produced its output.  A manifest is
+ * persisted in the state directory (see {@link Processor#setStateDir}) after each incremental build so the next
+ * build can skip any source file whose inputs have not changed.
+ * <p/>
+ * Instances are safe to update concurrently from multiple rendering threads.
+ *
+ * @since 0.4
+ */
+public class BuildManifest {
+
+    public static final String DEFAULT_FILE_NAME = ".scms-manifest.json";
+
+    //increment whenever the persisted format changes so older manifests are discarded rather than misread:
+    //2: templates include every #parse and #include target used, not just the page template
+    private static final int FORMAT_VERSION = 2;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> dependents = new HashMap<>(); //guarded by itself
+
+    public Entry get(String sourcePath) {
+        return entries.get(sourcePath);
+    }
+
+    public void put(Entry entry) {
+        Entry previous = entries.put(entry.getSourcePath(), entry);
+        synchronized (dependents) {
+            if (previous != null) {
+                removeDependent(previous);
+            }
+            for (String template : entry.getTemplates().keySet()) {
+                Set<String> paths = dependents.get(template);
+                if (paths == null) {
+                    paths = new TreeSet<>();
+                    dependents.put(template, paths);
+                }
+                paths.add(entry.getSourcePath());
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of the specified source file, e.g. because the file was deleted.
+     *
+     * @param sourcePath the source file's path
+     * @return the removed entry, or {@code null} if there was none.
+     */
+    public Entry remove(String sourcePath) {
+        Entry previous = entries.remove(sourcePath);
+        if (previous != null) {
+            synchronized (dependents) {
+                removeDependent(previous);
+            }
+        }
+        return previous;
+    }
+
+    private void removeDependent(Entry entry) {
+        for (String template : entry.getTemplates().keySet()) {
+            Set<String> paths = dependents.get(template);
+            if (paths != null && paths.remove(entry.getSourcePath()) && paths.isEmpty()) {
+                dependents.remove(template);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all templates (including {@code #parse} and {@code #include} targets) used by any entry.
+     *
+     * @return the names of all templates used by any entry.
+     */
+    public Set<String> getTemplates() {
+        synchronized (dependents) {
+            return new LinkedHashSet<>(dependents.keySet());
+        }
+    }
+
+    /**
+     * Returns the source paths of the entries that used the specified template - the reverse of
+     * {@link Entry#getTemplates()}.
+     *
+     * @param template the name of the template
+     * @return the source paths of the entries that used the template, empty if there are none.
+     */
+    public Set<String> getDependents(String template) {
+        synchronized (dependents) {
+            Set<String> paths = dependents.get(template);
+            return paths != null ? new LinkedHashSet<>(paths) : Collections.<String>emptySet();
+        }
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads the manifest persisted at the specified location, returning an empty manifest if the file does not exist
+     * or was written in an unsupported format.
+     *
+     * @param file the persisted manifest file
+     * @return the loaded manifest, never {@code null}.
+     * @throws IOException if the file exists but cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static BuildManifest load(File file) throws IOException {
+        BuildManifest manifest = new BuildManifest();
+        if (!file.isFile()) {
+            return manifest;
+        }
+
+        Map<String, Object> root;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Object parsed = new JsonSlurper().parse(reader);
+            if (!(parsed instanceof Map)) {
+                return manifest;
+            }
+            root = (Map<String, Object>) parsed;
+        } catch (RuntimeException e) {
+            //a corrupt manifest only means we can't skip anything - a full build will rewrite it:
+            return manifest;
+        }
+
+        Object version = root.get("version");
+        if (!(version instanceof Number) || ((Number) version).intValue() != FORMAT_VERSION) {
+            return manifest;
+        }
+
+        Object files = root.get("files");
+        if (files instanceof Map) {
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) files).entrySet()) {
+                if (e.getValue() instanceof Map) {
+                    manifest.put(Entry.fromMap(e.getKey(), (Map<String, Object>) e.getValue()));
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Persists this manifest to the specified file.  The file is written to a temporary sibling first and then moved
+     * into place so an interrupted build never leaves a truncated manifest behind.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        Map<String, Object> files = new TreeMap<>(); //sorted for stable, diff-friendly output
+        for (Entry entry : entries.values()) {
+            files.put(entry.getSourcePath(), entry.toMap());
+        }
+
+        Map<String, Object> dependentsByTemplate = new TreeMap<>();
+        synchronized (dependents) {
+            for (Map.Entry<String, Set<String>> e : dependents.entrySet()) {
+                dependentsByTemplate.put(e.getKey(), new ArrayList<>(e.getValue()));
+            }
+        }
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("version", FORMAT_VERSION);
+        root.put("files", files);
+        //derived from the files' templates when loaded, persisted so the graph can be inspected (and used) directly:
+        root.put("dependents", dependentsByTemplate);
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(JsonOutput.prettyPrint(JsonOutput.toJson(root)));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The recorded inputs and output of a single source file.
+     */
+    public static class Entry {
+
+        private final String sourcePath;
+        private long size;
+        private long lastModified;
+        private String hash;
+        private String pattern;
+        private String configHash;
+        private List<String> renderers = Collections.emptyList();
+        private Map<String, String> templates = Collections.emptyMap();
+        private String outputPath;
+
+        public Entry(String sourcePath) {
+            this.sourcePath = sourcePath;
+        }
+
+        public String getSourcePath() {
+            return sourcePath;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the hex-encoded SHA-256 digest of the source file's bytes.
+         *
+         * @return the hex-encoded SHA-256 digest of the source file's bytes.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * Returns the {@code scms.patterns} key that matched the source file, or {@code null} if none matched.
+         *
+         * @return the {@code scms.patterns} key that matched the source file, or {@code null} if none matched.
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        public void setPattern(String pattern) {
+            this.pattern = pattern;
+        }
+
+        /**
+         * Returns a fingerprint of the configuration that applied to the source file.
+         *
+         * @return a fingerprint of the configuration that applied to the source file.
+         */
+        public String getConfigHash() {
+            return configHash;
+        }
+
+        public void setConfigHash(String configHash) {
+            this.configHash = configHash;
+        }
+
+        /**
+         * Returns the names of the renderers applied to the source file, in order.  Empty if the file was copied.
+         *
+         * @return the names of the renderers applied to the source file, in order.
+         */
+        public List<String> getRenderers() {
+            return renderers;
+        }
+
+        public void setRenderers(List<String> renderers) {
+            this.renderers = renderers != null ? renderers : Collections.<String>emptyList();
+        }
+
+        /**
+         * Returns the templates used to render the source file, keyed by template path, with each value being the
+         * template's content hash at the time it was rendered.
+         *
+         * @return the templates used to render the source file and their content hashes.
+         */
+        public Map<String, String> getTemplates() {
+            return templates;
+        }
+
+        public void setTemplates(Map<String, String> templates) {
+            this.templates = templates != null ? templates : Collections.<String, String>emptyMap();
+        }
+
+        /**
+         * Returns the destination-relative path of the file produced from the source file.
+         *
+         * @return the destination-relative path of the file produced from the source file.
+         */
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+        public void setOutputPath(String outputPath) {
+            this.outputPath = outputPath;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("size", size);
+            m.put("lastModified", lastModified);
+            m.put("hash", hash);
+            m.put("pattern", pattern);
+            m.put("configHash", configHash);
+            m.put("renderers", renderers);
+            m.put("templates", new TreeMap<>(templates));
+            m.put("outputPath", outputPath);
+            return m;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Entry fromMap(String sourcePath, Map<String, Object> m) {
+            Entry e = new Entry(sourcePath);
+            e.setSize(toLong(m.get("size")));
+            e.setLastModified(toLong(m.get("lastModified")));
+            e.setHash((String) m.get("hash"));
+            e.setPattern((String) m.get("pattern"));
+            e.setConfigHash((String) m.get("configHash"));
+            Object renderers = m.get("renderers");
+            if (renderers instanceof List) {
+                e.setRenderers(new ArrayList<>((List<String>) renderers));
+            }
+            Object templates = m.get("templates");
+            if (templates instanceof Map) {
+                e.setTemplates(new LinkedHashMap<>((Map<String, String>) templates));
+            }
+            e.setOutputPath((String) m.get("outputPath"));
+            return e;
+        }
+
+        private static long toLong(Object o) {
+            return o instanceof Number ? ((Number) o).longValue() : -1L;
+        }
+    }
+}
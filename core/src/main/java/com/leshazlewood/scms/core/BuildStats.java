@@ -0,0 +1,422 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import groovy.json.JsonOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a build: wall and CPU time per {@link Phase}, totals per renderer, and the slowest files along with
+ * the bytes allocated while rendering them.
+ * <p/>
+ * Time is attributed to phases with {@link Span spans}.  A span started while another span is open on the same
+ * thread is nested in it, and its time is subtracted from the enclosing span, so every phase's time is exclusive and
+ * the phase totals add up to the measured total.  Spans are started by the processor and by shared code such as
+ * {@link MarkdownMetadata} through the static {@link #start(Phase)}, which does nothing unless statistics are being
+ * collected on the calling thread.  When files are rendered concurrently, phase and file times are the sum over all
+ * threads and may exceed the build's wall time.
+ *
+ * @since 0.4
+ */
+public final class BuildStats {
+
+    /**
+     * The phases of a build.
+     */
+    public enum Phase {
+        /** Walking the source tree, excluding the exclude matching done during the walk. */
+        WALK,
+        /** Matching paths against the {@code excludes} and {@code patterns}. */
+        MATCH,
+        /** Reading source files. */
+        READ,
+        /** Parsing and stripping Markdown metadata. */
+        METADATA,
+        /** Rendering Markdown. */
+        MARKDOWN,
+        /** Rendering Velocity templates. */
+        VELOCITY,
+        /** Rendering with any other renderer. */
+        RENDER,
+        /** Writing rendered output. */
+        WRITE,
+        /** Copying files that are not rendered. */
+        COPY
+    }
+
+    public static final int DEFAULT_SLOWEST_FILE_COUNT = 20;
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final boolean ALLOCATED_BYTES = THREADS instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+
+    private static final Span NOOP = new Span(null, null, null, null, null) {
+        @Override
+        public void end() {
+        }
+    };
+
+    private final int slowestFileCount;
+    private final Totals[] phases = new Totals[Phase.values().length];
+    private final ConcurrentMap<String, Totals> renderers = new ConcurrentHashMap<>();
+    private final PriorityQueue<FileStats> slowest; //fastest of the slowest first, guarded by itself
+    private final LongAdder files = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final long startNanos;
+    private volatile long endNanos;
+
+    public BuildStats() {
+        this(DEFAULT_SLOWEST_FILE_COUNT);
+    }
+
+    /**
+     * Creates new statistics that keep the specified number of slowest files.  The build's wall time is measured
+     * from now until {@link #finish()}.
+     *
+     * @param slowestFileCount the number of slowest files to report
+     */
+    public BuildStats(int slowestFileCount) {
+        this.slowestFileCount = slowestFileCount;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Totals();
+        }
+        this.slowest = new PriorityQueue<>(Math.max(1, slowestFileCount), new Comparator<FileStats>() {
+            @Override
+            public int compare(FileStats a, FileStats b) {
+                return Long.compare(a.wallNanos, b.wallNanos);
+            }
+        });
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts a span of the specified phase on the calling thread, outside of any file.
+     *
+     * @param phase the phase to attribute the span's time to
+     * @return the started span, to be {@link Span#end() ended} when the phase completes.
+     */
+    public Span begin(Phase phase) {
+        return new Span(this, phase, null, null, CURRENT.get());
+    }
+
+    /**
+     * Starts a span for the rendering of the specified file on the calling thread.  Spans started on the thread until
+     * it is {@link Span#end() ended} are attributed to the file.
+     *
+     * @param path the relative path of the file
+     * @return the started span, to be {@link Span#end() ended} when the file is done.
+     */
+    public Span beginFile(String path) {
+        return new Span(this, null, null, path, CURRENT.get());
+    }
+
+    /**
+     * Starts a span of the specified phase if statistics are being collected on the calling thread.
+     *
+     * @param phase the phase to attribute the span's time to
+     * @return the started span, to be {@link Span#end() ended} when the phase completes.
+     */
+    public static Span start(Phase phase) {
+        return start(phase, null);
+    }
+
+    /**
+     * Starts a span of the specified phase, whose time is also added to the totals of the named renderer, if
+     * statistics are being collected on the calling thread.
+     *
+     * @param phase    the phase to attribute the span's time to
+     * @param renderer the name of the renderer, may be {@code null}
+     * @return the started span, to be {@link Span#end() ended} when the phase completes.
+     */
+    public static Span start(Phase phase, String renderer) {
+        Span current = CURRENT.get();
+        if (current == null) {
+            return NOOP;
+        }
+        return new Span(current.stats, phase, renderer, null, current);
+    }
+
+    /**
+     * Ends the measurement of the build's wall time.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    private long getWallNanos() {
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+
+    private List<FileStats> getSlowestFiles() {
+        List<FileStats> files;
+        synchronized (slowest) {
+            files = new ArrayList<>(slowest);
+        }
+        Collections.sort(files, Collections.reverseOrder(slowest.comparator()));
+        return files;
+    }
+
+    /**
+     * Returns the statistics as a map of JSON-compatible values.
+     *
+     * @return the statistics as a map of JSON-compatible values.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("wallMillis", millis(getWallNanos()));
+        m.put("files", files.sum());
+        if (ALLOCATED_BYTES) {
+            m.put("allocatedBytes", allocatedBytes.sum());
+        }
+
+        Map<String, Object> phaseMap = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            phaseMap.put(phase.name().toLowerCase(), phases[phase.ordinal()].toMap());
+        }
+        m.put("phases", phaseMap);
+
+        Map<String, Object> rendererMap = new TreeMap<>();
+        for (Map.Entry<String, Totals> e : renderers.entrySet()) {
+            rendererMap.put(e.getKey(), e.getValue().toMap());
+        }
+        m.put("renderers", rendererMap);
+
+        List<Object> slowestFiles = new ArrayList<>();
+        for (FileStats f : getSlowestFiles()) {
+            slowestFiles.add(f.toMap());
+        }
+        m.put("slowestFiles", slowestFiles);
+        return m;
+    }
+
+    /**
+     * Writes the statistics as JSON to the specified file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(JsonOutput.prettyPrint(JsonOutput.toJson(toMap())));
+        }
+    }
+
+    /**
+     * Prints a human readable summary of the statistics.
+     *
+     * @param out the stream to print to
+     */
+    public void print(PrintStream out) {
+        out.printf("Build: %d file(s) in %d ms%n", files.sum(), millis(getWallNanos()));
+        if (ALLOCATED_BYTES) {
+            out.printf("Allocated: %.1f MB%n", allocatedBytes.sum() / (1024.0 * 1024));
+        }
+        out.println();
+        out.printf("%-12s %10s %10s %10s%n", "phase", "count", "wall ms", "cpu ms");
+        for (Phase phase : Phase.values()) {
+            Totals t = phases[phase.ordinal()];
+            out.printf("%-12s %10d %10d %10d%n", phase.name().toLowerCase(), t.count.sum(), millis(t.wallNanos.sum()),
+                    millis(t.cpuNanos.sum()));
+        }
+        if (!renderers.isEmpty()) {
+            out.println();
+            out.printf("%-50s %10s %10s %10s%n", "renderer", "count", "wall ms", "cpu ms");
+            for (Map.Entry<String, Totals> e : new TreeMap<>(renderers).entrySet()) {
+                Totals t = e.getValue();
+                out.printf("%-50s %10d %10d %10d%n", e.getKey(), t.count.sum(), millis(t.wallNanos.sum()),
+                        millis(t.cpuNanos.sum()));
+            }
+        }
+        List<FileStats> slowestFiles = getSlowestFiles();
+        if (!slowestFiles.isEmpty()) {
+            out.println();
+            out.printf("%10s %10s %12s  %s%n", "wall ms", "cpu ms", "allocated", "slowest files");
+            for (FileStats f : slowestFiles) {
+                out.printf("%10.1f %10.1f %12d  %s%n", f.wallNanos / 1e6, f.cpuNanos / 1e6, f.allocatedBytes, f.path);
+            }
+        }
+    }
+
+    private void record(Span span, long wallNanos, long cpuNanos, long allocated) {
+        if (span.path != null) {
+            files.increment();
+            if (allocated > 0) {
+                allocatedBytes.add(allocated);
+            }
+            recordFile(new FileStats(span.path, wallNanos, cpuNanos, allocated));
+            return;
+        }
+        //phases are exclusive of nested spans, renderers inclusive (a renderer's time includes its reads etc):
+        phases[span.phase.ordinal()].add(wallNanos - span.childWallNanos, cpuNanos - span.childCpuNanos);
+        if (span.renderer != null) {
+            Totals totals = renderers.get(span.renderer);
+            if (totals == null) {
+                Totals existing = renderers.putIfAbsent(span.renderer, totals = new Totals());
+                totals = existing != null ? existing : totals;
+            }
+            totals.add(wallNanos, cpuNanos);
+        }
+    }
+
+    private void recordFile(FileStats f) {
+        if (slowestFileCount <= 0) {
+            return;
+        }
+        synchronized (slowest) {
+            if (slowest.size() < slowestFileCount) {
+                slowest.add(f);
+            } else if (slowest.peek().wallNanos < f.wallNanos) {
+                slowest.poll();
+                slowest.add(f);
+            }
+        }
+    }
+
+    private static long cpuNanos() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATED_BYTES ?
+                ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * A measured section of a build on a single thread, see {@link BuildStats}.
+     */
+    public static class Span {
+
+        private final BuildStats stats;
+        private final Phase phase;
+        private final String renderer;
+        private final String path;
+        private final Span parent;
+        private final long startWallNanos;
+        private final long startCpuNanos;
+        private final long startAllocatedBytes;
+        private long childWallNanos;
+        private long childCpuNanos;
+
+        private Span(BuildStats stats, Phase phase, String renderer, String path, Span parent) {
+            this.stats = stats;
+            this.phase = phase;
+            this.renderer = renderer;
+            this.path = path;
+            this.parent = parent;
+            if (stats == null) { //NOOP
+                this.startWallNanos = this.startCpuNanos = this.startAllocatedBytes = 0;
+                return;
+            }
+            this.startAllocatedBytes = path != null ? allocatedBytes() : 0;
+            this.startCpuNanos = cpuNanos();
+            this.startWallNanos = System.nanoTime();
+            CURRENT.set(this);
+        }
+
+        /**
+         * Ends this span, attributing its time to its phase (or file).
+         */
+        public void end() {
+            long wallNanos = System.nanoTime() - startWallNanos;
+            long cpuNanos = cpuNanos() - startCpuNanos;
+            long allocated = path != null ? allocatedBytes() - startAllocatedBytes : 0;
+            if (parent != null && parent.path == null) {
+                parent.childWallNanos += wallNanos;
+                parent.childCpuNanos += cpuNanos;
+            }
+            if (parent != null) {
+                CURRENT.set(parent);
+            } else {
+                CURRENT.remove();
+            }
+            stats.record(this, wallNanos, cpuNanos, allocated);
+        }
+    }
+
+    private static class Totals {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder wallNanos = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+
+        private void add(long wall, long cpu) {
+            count.increment();
+            wallNanos.add(wall);
+            cpuNanos.add(cpu);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", count.sum());
+            m.put("wallMillis", millis(wallNanos.sum()));
+            m.put("cpuMillis", millis(cpuNanos.sum()));
+            return m;
+        }
+    }
+
+    private static class FileStats {
+
+        private final String path;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        private FileStats(String path, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.path = path;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("path", path);
+            m.put("wallMillis", wallNanos / 1e6);
+            m.put("cpuMillis", cpuNanos / 1e6);
+            if (ALLOCATED_BYTES) {
+                m.put("allocatedBytes", allocatedBytes);
+            }
+            return m;
+        }
+    }
+}
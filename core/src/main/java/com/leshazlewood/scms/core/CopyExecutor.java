@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file copies on their own thread pool, so that copying large assets neither holds up rendering nor occupies
+ * the threads writing rendered output.  Copies wait on the disk rather than the CPU, so the pool may well have more
+ * threads than there are processors.
+ * <p/>
+ * {@link #submit Submitting} a copy blocks while too many copies are queued.  The first copy to fail stops the
+ * executor: queued copies are skipped, further submissions fail and {@link #await()} rethrows the failure once all
+ * running copies have completed.
+ *
+ * @since 0.4
+ */
+public class CopyExecutor implements Closeable {
+
+    private final ExecutorService executor;
+    private final Semaphore queued;
+
+    private final Object lock = new Object();
+    private int pending; //guarded by lock
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param threads   the number of threads copying files
+     * @param maxQueued the maximum number of copies submitted but not yet finished
+     */
+    public CopyExecutor(int threads, int maxQueued) {
+        if (threads < 1 || maxQueued < 1) {
+            throw new IllegalArgumentException("Thread count and queue size must be greater than zero.");
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "scms-copy-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.queued = new Semaphore(maxQueued);
+    }
+
+    /**
+     * Runs the specified copy on one of this executor's threads, blocking the calling thread while the queue is full.
+     *
+     * @param task the copy to run
+     * @throws IOException if a copy has already failed, or the calling thread is interrupted while waiting
+     */
+    public void submit(final RenderPipeline.Task task) throws IOException {
+        checkFailure();
+        try {
+            queued.acquire();
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+        synchronized (lock) {
+            pending++;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure == null) {
+                        task.run();
+                    }
+                } catch (Throwable t) {
+                    synchronized (lock) {
+                        if (failure == null) {
+                            failure = t;
+                        }
+                    }
+                } finally {
+                    queued.release();
+                    synchronized (lock) {
+                        if (--pending == 0) {
+                            lock.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every submitted copy has finished, then rethrows the first failure, if any.
+     *
+     * @throws IOException the first failure, or if the calling thread is interrupted while waiting
+     */
+    public void await() throws IOException {
+        synchronized (lock) {
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw interrupted();
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        throw new IOException(t.getMessage(), t);
+    }
+
+    private static IOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("Interrupted while waiting for file copies.");
+    }
+
+    /**
+     * Stops all threads.  Copies that have not started yet are never run.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -16,7 +16,6 @@
 package com.leshazlewood.scms.core;
 
 import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.runtime.resource.loader.FileResourceLoader;
 
 import java.io.File;
 import java.util.Properties;
@@ -26,14 +25,45 @@ import java.util.Properties;
  */
 public class DefaultVelocityEngineFactory implements VelocityEngineFactory {
 
+    /**
+     * Velocity's default velocimacro library, resolved against the working directory.
+     *
+     * @since 0.4
+     */
+    public static final String DEFAULT_VELOCIMACRO_LIBRARY = "VM_global_library.vm";
+
     private File sourceDir;
     private File templatesDir;
+    private VelocityProfiler profiler;
+    private File velocimacroLibrary = new File(DEFAULT_VELOCIMACRO_LIBRARY);
 
     public DefaultVelocityEngineFactory(File sourceDir, File templatesDir) {
         this.sourceDir = sourceDir;
         this.templatesDir = templatesDir;
     }
 
+    /**
+     * Prepares created engines for the specified profiler, which must also be given to the {@link VelocityRenderer}s
+     * that use them.  Profiling is disabled by default.
+     *
+     * @param profiler the profiler, may be {@code null}
+     * @since 0.4
+     */
+    public void setProfiler(VelocityProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Sets the velocimacro library that created engines load their global macros from, if it exists.  An engine loads
+     * it once, when it is created, so a changed library requires a new engine.
+     *
+     * @param velocimacroLibrary the velocimacro library, {@link #DEFAULT_VELOCIMACRO_LIBRARY} by default
+     * @since 0.4
+     */
+    public void setVelocimacroLibrary(File velocimacroLibrary) {
+        this.velocimacroLibrary = velocimacroLibrary;
+    }
+
     private String createResourceLoaderPath() {
         StringBuilder sb = new StringBuilder();
         sb.append(sourceDir.getAbsolutePath()).append(", ").append(templatesDir.getAbsolutePath());
@@ -45,9 +75,26 @@ public class DefaultVelocityEngineFactory implements VelocityEngineFactory {
         Properties props = new Properties();
         props.put("input.encoding", "UTF-8");
         props.put("resource.loader", "file");
-        //props.put("file.resource.loader.class", FileResourceLoader.class.getName());
+        props.put("file.resource.loader.class", FileTemplateLoader.class.getName());
         //props.put("file.resource.loader.path", createResourceLoaderPath());
-        //props.put("file.resource.loader.cache", "false");
+        //parse each template, #parse/#include target and velocimacro library once, re-parsing only when it changes:
+        props.put("file.resource.loader.cache", "true");
+        props.put("file.resource.loader.modificationCheckInterval", "0"); //TemplateCache checks on every lookup
+        props.put("resource.manager.cache.class", TemplateCache.class.getName());
+        if (velocimacroLibrary.isFile()) { //Velocity fails if a configured library doesn't exist
+            props.put("velocimacro.library", velocimacroLibrary.getPath());
+        }
+        //$content is a RenderedContent, but templates may call any String method on it:
+        props.put("runtime.introspector.uberspect", RenderedContentUberspect.class.getName());
+        //enforces per-file render budgets:
+        props.put("eventhandler.referenceinsertion.class", RenderBudgetEventHandler.class.getName());
+        //checks the budget on every iteration, even of loops that produce no output (replaces the built-in #foreach):
+        String directives = RenderBudgetForeach.class.getName();
+        if (profiler != null) {
+            //#parse and macros are timed by the renderer's context, #include needs its own directive:
+            directives += ", " + ProfilingInclude.class.getName();
+        }
+        props.put("userdirective", directives);
 
         VelocityEngine engine = new VelocityEngine(props);
         engine.init();
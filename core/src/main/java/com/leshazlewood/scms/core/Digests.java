@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashing utilities used to detect whether build inputs and outputs have changed.
+ *
+ * @since 0.4
+ */
+public final class Digests {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is required by every Java platform.", e);
+        }
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 digest of the specified file's bytes.
+     *
+     * @param file the file to hash
+     * @return the hex-encoded SHA-256 digest of the specified file's bytes.
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 digest of the UTF-8 bytes of the specified string.
+     *
+     * @param s the string to hash
+     * @return the hex-encoded SHA-256 digest of the UTF-8 bytes of the specified string.
+     */
+    public static String sha256(String s) {
+        return toHex(newDigest().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            chars[i * 2] = HEX[b >>> 4];
+            chars[i * 2 + 1] = HEX[b & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Copies files that are output as-is (e.g. images, fonts and PDFs) in one of several {@link Mode modes}, most of
+ * which only touch files that changed since the last build:
+ * <ul>
+ * <li>{@link Mode#COPY} always copies the file's bytes.</li>
+ * <li>{@link Mode#QUICK} (the default) skips files whose destination has the same size and modification time as the
+ * source, like rsync's quick check, and copies the bytes otherwise.</li>
+ * <li>{@link Mode#HARDLINK} quick-checks like {@code QUICK}, then links the destination to the source instead of
+ * copying it.  The destination then <em>is</em> the source file, so it must not be edited in place.</li>
+ * <li>{@link Mode#REFLINK} quick-checks like {@code QUICK}, then clones the source with {@code cp}'s copy-on-write
+ * support (Linux {@code --reflink=always}, macOS {@code -c}), which shares the data blocks until either file is
+ * modified.  Only file systems like Btrfs, XFS and APFS support clones.</li>
+ * </ul>
+ * Copies preserve the source's modification time, which is what allows the next build's quick check to skip them.
+ * If the file system cannot link or clone files, the first failure switches that mode to byte copies for the rest of
+ * this copier's lifetime rather than failing the build.
+ * <p/>
+ * Instances are thread-safe.
+ *
+ * @since 0.4
+ */
+public class FileCopier {
+
+    /**
+     * How files are copied, configured with {@code copyMode} globally or per pattern.
+     */
+    public enum Mode {
+        COPY, QUICK, HARDLINK, REFLINK;
+
+        /**
+         * Returns the mode of the specified (case-insensitive) name, or the {@link #DEFAULT_MODE default} if the name
+         * is {@code null}.
+         *
+         * @param name the name of the mode, e.g. {@code 'reflink'}
+         * @return the mode of the specified name.
+         * @throws IllegalArgumentException if there is no mode of the specified name
+         */
+        public static Mode fromString(String name) {
+            if (name == null) {
+                return DEFAULT_MODE;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown copyMode '" + name + "'.  Expected one of " +
+                        Arrays.toString(values()).toLowerCase(Locale.ENGLISH) + ".", e);
+            }
+        }
+    }
+
+    public static final Mode DEFAULT_MODE = Mode.QUICK;
+
+    private static final List<String> REFLINK_COMMAND = getReflinkCommand();
+
+    private volatile boolean linkUnsupported;
+    private volatile boolean reflinkUnsupported = REFLINK_COMMAND == null;
+
+    /**
+     * Copies the specified file in the specified mode, replacing the destination file (but not creating its parent
+     * directories).
+     *
+     * @param src  the file to copy
+     * @param dest the destination file
+     * @param mode how to copy the file
+     * @return {@code true} if the destination was written, {@code false} if it was up to date
+     * @throws IOException if the file cannot be copied
+     */
+    public boolean copy(File src, File dest, Mode mode) throws IOException {
+        Path source = src.toPath();
+        Path target = dest.toPath();
+
+        if (mode != Mode.COPY && isUpToDate(source, target)) {
+            return false;
+        }
+        if (mode == Mode.HARDLINK && !linkUnsupported && link(source, target)) {
+            return true;
+        }
+        if (mode == Mode.REFLINK && !reflinkUnsupported && reflink(source, target)) {
+            return true;
+        }
+        //replacing deletes the target first, so a previous hard link's source is never overwritten:
+        Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES);
+        return true;
+    }
+
+    private static boolean isUpToDate(Path source, Path target) throws IOException {
+        BasicFileAttributes targetAttrs;
+        try {
+            targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        BasicFileAttributes sourceAttrs = Files.readAttributes(source, BasicFileAttributes.class);
+        return targetAttrs.isRegularFile() && targetAttrs.size() == sourceAttrs.size() &&
+                targetAttrs.lastModifiedTime().toMillis() == sourceAttrs.lastModifiedTime().toMillis();
+    }
+
+    private boolean link(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            linkUnsupported = true;
+        } catch (FileSystemException e) {
+            //most likely a link across file systems, which will fail for every other file, too:
+            linkUnsupported = true;
+        }
+        return false;
+    }
+
+    private boolean reflink(Path source, Path target) throws IOException {
+        //never clone into an existing file - it may be a hard link to a source file:
+        Files.deleteIfExists(target);
+
+        List<String> command = new ArrayList<>(REFLINK_COMMAND);
+        command.add(source.toString());
+        command.add(target.toString());
+
+        int exitCode;
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (InputStream in = process.getInputStream()) {
+                byte[] buf = new byte[512];
+                //noinspection StatementWithEmptyBody
+                while (in.read(buf) >= 0) {
+                }
+            }
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + source);
+        } catch (IOException e) {
+            exitCode = -1; //cp is not available
+        }
+
+        if (exitCode != 0) {
+            reflinkUnsupported = true;
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> getReflinkCommand() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+        if (os.contains("linux")) {
+            return Collections.unmodifiableList(Arrays.asList("cp", "--reflink=always", "--preserve=mode,timestamps",
+                    "--"));
+        }
+        if (os.contains("mac")) {
+            return Collections.unmodifiableList(Arrays.asList("cp", "-c", "-p", "--"));
+        }
+        return null;
+    }
+}
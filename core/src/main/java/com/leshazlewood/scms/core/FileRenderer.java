@@ -1,5 +1,9 @@
 package com.leshazlewood.scms.core;
 
+/**
+ * A {@link Renderer} that is selected based on a file's extension.  The thread-safety contract described in the
+ * {@link Renderer} documentation applies to file renderers as well.
+ */
 public interface FileRenderer extends Renderer {
 
     boolean supports(String filename);
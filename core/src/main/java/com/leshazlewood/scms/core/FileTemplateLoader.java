@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.commons.collections.ExtendedProperties;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.loader.ResourceLoader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Velocity {@link ResourceLoader} that loads templates from the file system.  Relative template names are resolved
+ * against each configured {@code path} in order (the working directory by default), exactly as Velocity's own
+ * {@code FileResourceLoader} does.  Unlike that loader, an absolute template name is loaded as-is, so a
+ * {@code template} configured with an absolute path can be loaded - and cached - like any other template.
+ *
+ * @see TemplateCache
+ * @since 0.4
+ */
+public class FileTemplateLoader extends ResourceLoader {
+
+    private final List<String> paths = new ArrayList<>();
+
+    @Override
+    public void init(ExtendedProperties configuration) {
+        String[] configured = configuration.getStringArray("path");
+        if (configured != null) {
+            for (String path : configured) {
+                path = path.trim();
+                if (!path.isEmpty()) {
+                    paths.add(path);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(".");
+        }
+    }
+
+    @Override
+    public InputStream getResourceStream(String source) throws ResourceNotFoundException {
+        File file = resolve(source);
+        if (file == null) {
+            throw new ResourceNotFoundException("Unable to find template '" + source + "' in " + paths);
+        }
+        try {
+            return new BufferedInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            throw new ResourceNotFoundException("Unable to read template '" + source + "': " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isSourceModified(Resource resource) {
+        File file = resolve(resource.getName());
+        return file == null || file.lastModified() != resource.getLastModified();
+    }
+
+    @Override
+    public long getLastModified(Resource resource) {
+        File file = resolve(resource.getName());
+        return file != null ? file.lastModified() : 0;
+    }
+
+    private File resolve(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        File file = new File(name);
+        if (file.isAbsolute()) {
+            return file.isFile() ? file : null;
+        }
+        for (String path : paths) {
+            file = new File(path, name);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
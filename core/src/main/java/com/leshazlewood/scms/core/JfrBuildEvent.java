@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder backed {@link BuildEvent}.  Only loaded when the {@code jdk.jfr} API is available.
+ *
+ * @since 0.4
+ */
+final class JfrBuildEvent extends BuildEvent {
+
+    private final ScmsEvent event;
+
+    private JfrBuildEvent(ScmsEvent event, String path) {
+        this.event = event;
+        event.path = path;
+        event.begin();
+    }
+
+    static BuildEvent newRenderFileEvent(String path) {
+        return new JfrBuildEvent(new RenderFileEvent(), path);
+    }
+
+    static BuildEvent newRenderEvent(String path) {
+        return new JfrBuildEvent(new RenderEvent(), path);
+    }
+
+    static BuildEvent newCopyEvent(String path) {
+        return new JfrBuildEvent(new CopyEvent(), path);
+    }
+
+    @Override
+    public BuildEvent setPattern(String pattern) {
+        event.pattern = pattern;
+        return this;
+    }
+
+    @Override
+    public BuildEvent setRenderer(String renderer) {
+        event.renderer = renderer;
+        return this;
+    }
+
+    @Override
+    public BuildEvent setInputSize(long inputSize) {
+        event.inputSize = inputSize;
+        return this;
+    }
+
+    @Override
+    public BuildEvent setOutputSize(long outputSize) {
+        event.outputSize = outputSize;
+        return this;
+    }
+
+    @Override
+    public void commit() {
+        event.commit();
+    }
+
+    abstract static class ScmsEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Pattern")
+        @Description("The configured pattern the path matched, if any")
+        String pattern;
+
+        @Label("Renderer")
+        @Description("The renderer class, or the comma-separated renderer classes of a file")
+        String renderer;
+
+        @Label("Input Size")
+        @Description("The size of the input in bytes (source files) or characters (rendered content)")
+        @DataAmount
+        long inputSize;
+
+        @Label("Output Size")
+        @Description("The size of the output in characters (rendered content) or bytes (copied files)")
+        @DataAmount
+        long outputSize;
+    }
+
+    @Name("com.leshazlewood.scms.RenderFile")
+    @Label("Render File")
+    @Category("SCMS")
+    @Description("Rendering a source file, from pattern matching to writing its output")
+    static class RenderFileEvent extends ScmsEvent {
+    }
+
+    @Name("com.leshazlewood.scms.Render")
+    @Label("Render")
+    @Category("SCMS")
+    @Description("A single renderer or template step of rendering a source file")
+    static class RenderEvent extends ScmsEvent {
+    }
+
+    @Name("com.leshazlewood.scms.Copy")
+    @Label("Copy")
+    @Category("SCMS")
+    @Description("Copying a source file that is not rendered")
+    static class CopyEvent extends ScmsEvent {
+    }
+}
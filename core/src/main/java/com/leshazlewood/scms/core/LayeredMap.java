@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A copy-on-write view over a stack of maps.  A lookup returns the value from the first layer that contains the key,
+ * and every write goes to a layer of its own that sits above all of the others, so the underlying maps are shared but
+ * never modified.
+ * <p/>
+ * This allows the global configuration and model to be combined with a pattern's configuration and a single file's
+ * values without copying any of them: only the keys that are actually set for that file are stored.  Note that the
+ * values themselves are not copied either, so a nested map obtained from a lower layer is the shared original.
+ * <p/>
+ * Iterating over the entries (or calling {@link #size()}) merges all layers, so it is comparatively expensive and is
+ * intended for occasional use only.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @since 0.4
+ */
+public class LayeredMap<K, V> extends AbstractMap<K, V> {
+
+    private final Map<K, V> own = new LinkedHashMap<>();
+    private final List<Map<K, ? extends V>> layers;
+
+    /**
+     * Creates a new map that looks up keys in the specified maps, in order, after its own entries.
+     *
+     * @param layers the underlying maps, highest precedence first.  {@code null} elements are ignored.
+     */
+    public LayeredMap(List<? extends Map<K, ? extends V>> layers) {
+        List<Map<K, ? extends V>> l = new ArrayList<>(layers.size() + 1);
+        l.add(own);
+        for (Map<K, ? extends V> layer : layers) {
+            if (layer != null && !layer.isEmpty()) {
+                l.add(layer);
+            }
+        }
+        this.layers = Collections.unmodifiableList(l);
+    }
+
+    /**
+     * Returns every layer of this map, highest precedence first.  The first layer is always the (mutable) map that
+     * receives this map's writes; the remaining layers must be treated as read-only.
+     *
+     * @return every layer of this map, highest precedence first.
+     */
+    public List<Map<K, ? extends V>> getLayers() {
+        return layers;
+    }
+
+    @Override
+    public V get(Object key) {
+        for (Map<K, ? extends V> layer : layers) {
+            V value = layer.get(key);
+            if (value != null || layer.containsKey(key)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (Map<K, ? extends V> layer : layers) {
+            if (layer.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V previous = get(key);
+        own.put(key, value);
+        return previous;
+    }
+
+    /**
+     * Removes the key from this map's own layer.  A key that is (also) defined by an underlying layer cannot be
+     * removed because the underlying layers are never modified.
+     *
+     * @throws UnsupportedOperationException if the key is defined by an underlying layer
+     */
+    @Override
+    public V remove(Object key) {
+        for (int i = 1; i < layers.size(); i++) {
+            if (layers.get(i).containsKey(key)) {
+                throw new UnsupportedOperationException("Key '" + key + "' is defined by an underlying map.");
+            }
+        }
+        return own.remove(key);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Map<K, V> merged = new LinkedHashMap<>();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            merged.putAll(layers.get(i));
+        }
+        return Collections.unmodifiableMap(merged).entrySet();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the <a href="http://fletcherpenney.net/multimarkdown/#metadata">MultiMarkdown-style</a> metadata block at
+ * the top of a Markdown document, shared by the Markdown {@link FileRenderer}s and the {@link SiteExporter}.
+ * <p/>
+ * The block consists of {@code key: value} lines (a line without a key continues the previous key's value, making it
+ * a list) and ends with the first blank line.  The document is scanned in place: only the block's keys and values are
+ * copied, the scan stops at the end of the block, and the remaining content is returned as a view of the document.
+ * Lines may end with {@code \n}, {@code \r\n} or {@code \r}.
+ *
+ * @since 0.4
+ */
+final class MarkdownMetadata {
+
+    private static final char METADATA_KV_PAIR_DELIMITER = ':';
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+    private MarkdownMetadata() {
+    }
+
+    /**
+     * Adds each key/value pair of the document's metadata block (if any) to the model and returns the remaining
+     * Markdown content, without leading and trailing whitespace.  The content is returned as is if the document has no
+     * metadata block.
+     *
+     * @param markdown the Markdown document
+     * @param model    the model that receives the metadata values
+     * @return the document's content without its metadata block.
+     */
+    static String strip(String markdown, Map<String, Object> model) {
+        int start = scan(markdown, model);
+        if (start < 0) {
+            return markdown;
+        }
+        return markdown.substring(start, trimEnd(markdown, start));
+    }
+
+    /**
+     * Like {@link #strip(String, Map)}, but returns the content as a view of the document rather than a copy.
+     *
+     * @param markdown the Markdown document
+     * @param model    the model that receives the metadata values
+     * @return a view of the document's content without its metadata block.
+     */
+    static CharBuffer strip(CharSequence markdown, Map<String, Object> model) {
+        int start = scan(markdown, model);
+        int end = markdown.length();
+        if (start < 0) {
+            start = 0;
+        } else {
+            end = trimEnd(markdown, start);
+        }
+        if (markdown instanceof CharBuffer) {
+            //a slice keeps the view backed by the same array (if any):
+            CharBuffer view = ((CharBuffer) markdown).duplicate();
+            int offset = view.position();
+            view.limit(offset + end);
+            view.position(offset + start);
+            return view.slice();
+        }
+        return CharBuffer.wrap(markdown, start, end);
+    }
+
+    /**
+     * Reads the entire document into a buffer.  The returned buffer is backed by an array, so it can be handed to
+     * parsers that require one without copying it again.
+     *
+     * @param reader the reader to read, not closed by this method
+     * @return a buffer containing the document, positioned at its start.
+     * @throws IOException if the document cannot be read
+     */
+    static CharBuffer read(Reader reader) throws IOException {
+        char[] buf = new char[INITIAL_READ_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while ((n = reader.read(buf, length, buf.length - length)) >= 0) {
+            length += n;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return CharBuffer.wrap(buf, 0, length);
+    }
+
+    /**
+     * Adds the metadata to the model and returns the index of the first non-whitespace character after the block, or
+     * {@code -1} if the document does not start with a complete metadata block (in which case the model is not
+     * modified).
+     */
+    private static int scan(CharSequence markdown, Map<String, Object> model) {
+        if (model == null) {
+            throw new IllegalArgumentException("model argument cannot be null.");
+        }
+        BuildStats.Span span = BuildStats.start(BuildStats.Phase.METADATA);
+        try {
+            return doScan(markdown, model);
+        } finally {
+            span.end();
+        }
+    }
+
+    private static int doScan(CharSequence s, Map<String, Object> model) {
+        int length = s.length();
+        int pos = 0;
+        boolean firstLine = true;
+
+        //applied to the model only once the block is known to be complete:
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        String key = null;
+        List<String> value = new ArrayList<>();
+
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && s.charAt(lineEnd) != '\n' && s.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            int next = lineEnd;
+            if (next < length) {
+                next += (s.charAt(next) == '\r' && next + 1 < length && s.charAt(next + 1) == '\n') ? 2 : 1;
+            }
+
+            //trim the line in place, like String.trim():
+            int start = pos;
+            int end = lineEnd;
+            while (start < end && s.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && s.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            int index = indexOf(s, METADATA_KV_PAIR_DELIMITER, start, end);
+
+            if (firstLine) {
+                if (start == end || index < 0) {
+                    //does not conform to Markdown Metadata expectations:
+                    // - cannot be any blank lines above first line of content
+                    // - first line of content must be a ':' delimited key/value pair
+                    return -1;
+                }
+                firstLine = false;
+            } else if (start == end) {
+                //we found the end of metadata - add last key/value pair and skip to the content:
+                applyValue(metadata, key, value);
+                model.putAll(metadata);
+                while (next < length && s.charAt(next) <= ' ') {
+                    next++;
+                }
+                return next;
+            }
+
+            if (index > start) {
+                applyValue(metadata, key, value);
+                key = trim(s, start, index);
+                value = new ArrayList<>();
+                value.add(trim(s, index + 1, end));
+            } else {
+                value.add(s.subSequence(start, end).toString());
+            }
+
+            pos = next;
+        }
+
+        //the document ended before the blank line that ends the metadata block:
+        return -1;
+    }
+
+    private static int indexOf(CharSequence s, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String trim(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return s.subSequence(start, end).toString();
+    }
+
+    private static int trimEnd(CharSequence s, int start) {
+        int end = s.length();
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static void applyValue(Map<String, Object> model, String key, List<String> value) {
+        if (key != null && value != null && !value.isEmpty()) {
+            if (value.size() == 1) {
+                model.put(key, value.get(0));
+            } else {
+                model.put(key, value);
+            }
+        }
+    }
+}
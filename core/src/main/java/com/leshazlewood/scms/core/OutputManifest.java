@@ -0,0 +1,362 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A record of every file a build wrote to the destination directory - its hash, size and last modification time -
+ * and of how the outputs differ from the previous build's.
+ * <p/>
+ * The record is persisted in the state directory (see {@link Processor#setStateDir}) after each build (see
+ * {@link #DEFAULT_FILE_NAME}), never in the destination directory, so that
+ * <ul>
+ * <li>the {@link OutputWriter} can leave an output untouched, modification time included, when its content is the
+ * same as before, without reading the file on disk;</li>
+ * <li>outputs that no source produces anymore can be {@link #prune pruned}; and</li>
+ * <li>the added, changed and removed outputs can be written to a change list (see {@link #CHANGES_FILE_NAME}) for
+ * deployment tools, e.g. to sync only those files.</li>
+ * </ul>
+ * A manifest only ever deletes files it has recorded, never anything else in the destination directory.
+ * <p/>
+ * Instances are safe to update concurrently from multiple rendering threads.
+ *
+ * @since 0.4
+ */
+public class OutputManifest {
+
+    public static final String DEFAULT_FILE_NAME = ".scms-outputs.json";
+    public static final String CHANGES_FILE_NAME = ".scms-changes.json";
+
+    //increment whenever the persisted format changes so older files are discarded rather than misread:
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * How an output differs from the previous build's.
+     */
+    public enum Change {
+        ADDED, CHANGED, REMOVED
+    }
+
+    private final Map<String, Output> previous;
+    private final Map<String, Output> outputs = new ConcurrentHashMap<>();
+    private final Map<Change, Map<String, String>> changes = new ConcurrentHashMap<>();
+    private final boolean complete;
+
+    public OutputManifest() {
+        this(new ConcurrentHashMap<String, Output>(), true);
+    }
+
+    private OutputManifest(Map<String, Output> previous, boolean complete) {
+        this.previous = previous;
+        this.complete = complete;
+        for (Change change : Change.values()) {
+            changes.put(change, new ConcurrentHashMap<String, String>());
+        }
+        if (!complete) {
+            outputs.putAll(previous);
+        }
+    }
+
+    /**
+     * Returns a new, empty manifest for the next build, which compares its outputs against the ones recorded in this
+     * manifest.
+     *
+     * @param complete {@code true} if the next build writes every output, {@code false} if it only writes some of them
+     *                 (e.g. an update after a few files changed) so that the outputs it doesn't write are retained
+     *                 rather than {@link #prune pruned}
+     * @return a new manifest for the next build.
+     */
+    public OutputManifest next(boolean complete) {
+        return new OutputManifest(new ConcurrentHashMap<>(outputs), complete);
+    }
+
+    /**
+     * Returns what the previous build recorded for the specified output, or {@code null} if it didn't write it.
+     *
+     * @param path the output's path, relative to the destination directory
+     * @return what the previous build recorded for the specified output, or {@code null}.
+     */
+    public Output getPrevious(String path) {
+        return previous.get(path);
+    }
+
+    /**
+     * Records an output of this build.
+     *
+     * @param path   the output's path, relative to the destination directory
+     * @param output the output's hash, size and last modification time
+     * @param change how the output differs from what was on disk before, {@code null} if it is unchanged
+     */
+    public void put(String path, Output output, Change change) {
+        outputs.put(path, output);
+        if (change != null) {
+            changes.get(change).put(path, output.hash);
+        }
+    }
+
+    /**
+     * Carries the previous build's record of the specified output over to this build, for an output that is still
+     * produced but was not written again (e.g. because its source is up to date).
+     *
+     * @param path the output's path, relative to the destination directory
+     */
+    public void retain(String path) {
+        Output output = previous.get(path);
+        if (output != null) {
+            outputs.put(path, output);
+        }
+    }
+
+    /**
+     * Removes the specified output of the previous build, and every output inside it if it is a directory, so that
+     * they are {@link #prune pruned} even if this manifest is for an incomplete build, e.g. because their source was
+     * deleted.
+     *
+     * @param path the output's path, relative to the destination directory
+     */
+    public void remove(String path) {
+        String prefix = path + File.separatorChar;
+        for (String p : previous.keySet()) {
+            if (p.equals(path) || p.startsWith(prefix)) {
+                outputs.remove(p);
+            }
+        }
+    }
+
+    /**
+     * Carries the previous build's record of every output this build did not write over to this build, e.g. because
+     * the build could not process some of its files, so that their outputs are neither pruned nor forgotten.
+     */
+    public void retainAll() {
+        for (Map.Entry<String, Output> e : previous.entrySet()) {
+            if (!outputs.containsKey(e.getKey())) {
+                outputs.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Deletes every output of the previous build that this build did not produce or, if this manifest is for an
+     * incomplete build (see {@link #next}), that was {@link #remove removed}.  Directories left empty are deleted as
+     * well.  A recorded path that is
+     * absolute or resolves to outside the specified directory (e.g. in a tampered manifest) is never deleted.
+     *
+     * @param dir the destination directory
+     * @return the number of outputs deleted
+     */
+    public int prune(File dir) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        int count = 0;
+        for (Map.Entry<String, Output> e : previous.entrySet()) {
+            String path = e.getKey();
+            if (outputs.containsKey(path)) {
+                continue;
+            }
+            Path target = resolve(root, path);
+            if (target == null) {
+                continue;
+            }
+            File file = target.toFile();
+            if (file.delete()) {
+                count++;
+                //deleting a non-empty directory fails, which ends the walk up the tree:
+                for (Path parent = target.getParent(); !parent.equals(root) && parent.toFile().delete(); ) {
+                    parent = parent.getParent();
+                }
+            }
+            if (!file.exists()) {
+                changes.get(Change.REMOVED).put(path, e.getValue().hash);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the specified output path resolved against the specified (normalized, absolute) directory, or
+     * {@code null} if it is absolute or does not resolve to a file inside the directory.
+     */
+    private static Path resolve(Path root, String path) {
+        if (path.isEmpty() || new File(path).isAbsolute()) {
+            return null;
+        }
+        Path target = root.resolve(path).normalize();
+        return target.startsWith(root) && !target.equals(root) ? target : null;
+    }
+
+    /**
+     * Returns the outputs that differ from the previous build's in the specified way, as hashes by path.  The hash of a
+     * removed output is the one it had when it was written.
+     *
+     * @param change the kind of change
+     * @return the outputs that differ from the previous build's in the specified way.
+     */
+    public Map<String, String> getChanges(Change change) {
+        return new TreeMap<>(changes.get(change));
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    /**
+     * Loads the manifest persisted in the specified directory.  A missing, corrupt or outdated manifest results in an
+     * empty manifest, as if there were no previous build.  So does a manifest saved for a different destination
+     * directory: its paths are relative, so they must never be compared with, or pruned from, another directory.
+     *
+     * @param dir     the state directory
+     * @param destDir the destination directory of the build about to start
+     * @return the loaded manifest, never {@code null}.
+     * @throws IOException if the manifest exists but cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static OutputManifest load(File dir, File destDir) throws IOException {
+        OutputManifest manifest = new OutputManifest();
+        File file = new File(dir, DEFAULT_FILE_NAME);
+        if (!file.isFile()) {
+            return manifest;
+        }
+
+        Map<String, Object> root;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Object parsed = new JsonSlurper().parse(reader);
+            if (!(parsed instanceof Map)) {
+                return manifest;
+            }
+            root = (Map<String, Object>) parsed;
+        } catch (RuntimeException e) {
+            //a corrupt manifest only means every output is compared with the file on disk:
+            return manifest;
+        }
+
+        Object version = root.get("version");
+        if (!(version instanceof Number) || ((Number) version).intValue() != FORMAT_VERSION) {
+            return manifest;
+        }
+        if (!getPath(destDir).equals(root.get("destDir"))) {
+            return manifest;
+        }
+
+        Object files = root.get("files");
+        if (files instanceof Map) {
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) files).entrySet()) {
+                if (e.getValue() instanceof Map) {
+                    Map<String, Object> m = (Map<String, Object>) e.getValue();
+                    Object hash = m.get("hash");
+                    Object size = m.get("size");
+                    Object lastModified = m.get("lastModified");
+                    if (hash instanceof String && size instanceof Number && lastModified instanceof Number) {
+                        manifest.outputs.put(e.getKey(), new Output((String) hash, ((Number) size).longValue(),
+                                ((Number) lastModified).longValue()));
+                    }
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes this manifest and the change list to the specified directory, replacing the previous ones atomically.
+     *
+     * @param dir     the state directory
+     * @param destDir the destination directory the outputs were written to
+     * @throws IOException if the files cannot be written
+     */
+    public void save(File dir, File destDir) throws IOException {
+        Map<String, Object> files = new TreeMap<>(); //sorted for stable, diff-friendly output
+        for (Map.Entry<String, Output> e : outputs.entrySet()) {
+            Output output = e.getValue();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("hash", output.hash);
+            m.put("size", output.size);
+            m.put("lastModified", output.lastModified);
+            files.put(e.getKey(), m);
+        }
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("version", FORMAT_VERSION);
+        root.put("destDir", getPath(destDir));
+        root.put("files", files);
+        write(root, new File(dir, DEFAULT_FILE_NAME));
+
+        root = new LinkedHashMap<>();
+        root.put("version", FORMAT_VERSION);
+        root.put("destDir", getPath(destDir));
+        root.put("complete", complete);
+        root.put("added", getChanges(Change.ADDED));
+        root.put("changed", getChanges(Change.CHANGED));
+        root.put("removed", getChanges(Change.REMOVED));
+        write(root, new File(dir, CHANGES_FILE_NAME));
+    }
+
+    private static String getPath(File dir) {
+        return dir.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private static void write(Map<String, Object> root, File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(JsonOutput.prettyPrint(JsonOutput.toJson(root)));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A recorded output file.
+     */
+    public static class Output {
+
+        private final String hash;
+        private final long size;
+        private final long lastModified;
+
+        public Output(String hash, long size, long lastModified) {
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the hex-encoded SHA-256 digest of the output's bytes.
+         *
+         * @return the hex-encoded SHA-256 digest of the output's bytes.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes output files as UTF-8 with as few file system calls as possible:
+ * <ul>
+ * <li>Directories are only created once: every directory this writer created (or found to exist) is remembered until
+ * it is {@link #reset() reset}, so writing a file into a known directory doesn't touch its parent at all.</li>
+ * <li>A file is written to a temporary file, which is then atomically moved into place, so a web server serving the
+ * destination directory never sees a partially written file.  This also replaces rather than writes through a file
+ * that is a hard link to a source file (see {@link FileCopier}).  Temporary files are kept in one hidden directory of
+ * the destination directory (see {@link #TEMP_DIR_NAME}), on the same file system so the move stays atomic, which is
+ * {@link #deleteTemporaryFiles deleted} after each build.</li>
+ * <li>Content is encoded straight into a pooled buffer that is hashed and written to the file's channel, without an
+ * intermediate {@code Writer} or copies of the content.</li>
+ * <li>A file whose content is unchanged is not written at all, so its modification time is preserved and tools like
+ * rsync skip it.  If the {@link #setManifest manifest} records the same hash, size and modification time as the file
+ * on disk, the file isn't even read; otherwise it is compared byte by byte.</li>
+ * </ul>
+ * Every file written (or left unchanged) is recorded in the manifest, if any.  Unmappable characters (i.e. unpaired
+ * surrogates) are written as {@code ?}.  Instances are thread-safe.
+ *
+ * @since 0.4
+ */
+public class OutputWriter {
+
+    /**
+     * The name of the directory, directly inside the destination directory, that files are written to before they are
+     * moved into place.
+     */
+    public static final String TEMP_DIR_NAME = ".scms-tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //a thread's encoding buffer grows to its largest output - don't keep more than this around between files:
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private final Set<String> directories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final FileCopier copier = new FileCopier();
+
+    private volatile OutputManifest manifest;
+
+    /**
+     * Forgets all directories created so far, e.g. before a build in a long-running process, as they may have been
+     * deleted since.
+     */
+    public void reset() {
+        directories.clear();
+    }
+
+    /**
+     * Sets the manifest that records every output written from now on, and whose previous outputs allow unchanged
+     * files to be skipped without reading them.  {@code null} stops recording.
+     *
+     * @param manifest the manifest of the current build, may be {@code null}
+     */
+    public void setManifest(OutputManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    public OutputManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Creates the specified directory and any missing parent directories, unless this writer already did.
+     *
+     * @param dir the directory to create
+     * @throws IOException if the directory cannot be created, e.g. because a file of the same name exists
+     */
+    public void createDirectories(File dir) throws IOException {
+        String path = dir.getPath();
+        if (!directories.contains(path)) {
+            Files.createDirectories(dir.toPath());
+            directories.add(path);
+        }
+    }
+
+    /**
+     * Creates the parent directories of the specified file, unless this writer already did.
+     *
+     * @param file the file about to be written
+     * @throws IOException if the directories cannot be created
+     */
+    public void createParentDirectories(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            createDirectories(parent);
+        }
+    }
+
+    /**
+     * Deletes the directory that files are written to before they are moved into place, along with any temporary files
+     * a build left behind when it was interrupted.  Call this when a build has written all of its files.
+     *
+     * @param dir the destination directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    public void deleteTemporaryFiles(File dir) throws IOException {
+        File tmpDir = new File(dir, TEMP_DIR_NAME);
+        File[] files = tmpDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(tmpDir.toPath());
+        directories.remove(tmpDir.getPath());
+    }
+
+    /**
+     * Writes the specified content as UTF-8 to the file at the specified path, creating the file (and its parent
+     * directories) if necessary and replacing any previous content, unless the file already has exactly this
+     * content.
+     *
+     * @param dir     the destination directory
+     * @param path    the file's path, relative to the destination directory
+     * @param content the content to write
+     * @return the number of bytes of the content, whether written or not
+     * @throws IOException if the file cannot be written
+     */
+    public long write(File dir, String path, CharSequence content) throws IOException {
+        Buffers b = buffers.get();
+        CharBuffer chars = content instanceof CharBuffer ? ((CharBuffer) content).duplicate() : CharBuffer.wrap(content);
+        try {
+            return write(dir, path, b.encode(chars));
+        } finally {
+            b.trim();
+        }
+    }
+
+    /**
+     * Writes the specified bytes to the file at the specified path, creating the file (and its parent directories) if
+     * necessary and replacing any previous content, unless the file already has exactly these bytes.
+     *
+     * @param dir     the destination directory
+     * @param path    the file's path, relative to the destination directory
+     * @param content the bytes to write, from the buffer's position to its limit (the buffer itself is not modified)
+     * @return the number of bytes of the content, whether written or not
+     * @throws IOException if the file cannot be written
+     */
+    public long write(File dir, String path, ByteBuffer content) throws IOException {
+        Buffers b = buffers.get();
+        File file = new File(dir, path);
+        long size = content.remaining();
+
+        MessageDigest digest = b.digest;
+        digest.reset();
+        digest.update(content.duplicate());
+        String hash = Digests.toHex(digest.digest());
+
+        OutputManifest manifest = this.manifest;
+        OutputManifest.Output previous = manifest != null ? manifest.getPrevious(path) : null;
+        BasicFileAttributes attrs = readAttributes(file.toPath());
+
+        if (attrs != null && attrs.isRegularFile() && attrs.size() == size) {
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            boolean unchanged;
+            if (previous != null && previous.getSize() == size && previous.getLastModified() == lastModified) {
+                //the file is still what the previous build wrote:
+                unchanged = previous.getHash().equals(hash);
+            } else {
+                unchanged = contentEquals(file, content, b.chunk);
+            }
+            if (unchanged) {
+                if (manifest != null) {
+                    manifest.put(path, new OutputManifest.Output(hash, size, lastModified), null);
+                }
+                return size;
+            }
+        }
+
+        if (attrs == null) {
+            createParentDirectories(file);
+        }
+        File tmpDir = new File(dir, TEMP_DIR_NAME);
+        createDirectories(tmpDir);
+        //unique, as files of the same name in different directories may be written concurrently:
+        Path tmp = new File(tmpDir, file.getName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) +
+                ".tmp").toPath();
+        boolean moved = false;
+        try {
+            ByteBuffer bytes = content.duplicate();
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        if (manifest != null) {
+            OutputManifest.Change change = attrs == null ? OutputManifest.Change.ADDED : OutputManifest.Change.CHANGED;
+            manifest.put(path, new OutputManifest.Output(hash, size, file.lastModified()), change);
+        }
+        return size;
+    }
+
+    /**
+     * Copies the specified file to the specified path in the specified mode (see {@link FileCopier}), replacing any
+     * previous file unless it is up to date.  The copy is hashed for the manifest unless the manifest records a copy
+     * of the same size and modification time.
+     *
+     * @param src  the file to copy
+     * @param dir  the destination directory
+     * @param path the copy's path, relative to the destination directory
+     * @param mode how to copy the file
+     * @return {@code true} if the file was copied, {@code false} if the copy was up to date
+     * @throws IOException if the file cannot be copied
+     */
+    public boolean copy(File src, File dir, String path, FileCopier.Mode mode) throws IOException {
+        File file = new File(dir, path);
+        createParentDirectories(file);
+        boolean existed = file.exists();
+        boolean copied = copier.copy(src, file, mode);
+
+        OutputManifest manifest = this.manifest;
+        if (manifest == null) {
+            return copied;
+        }
+        OutputManifest.Output previous = manifest.getPrevious(path);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        OutputManifest.Change change = null;
+        String hash;
+        if (previous != null && previous.getSize() == size && previous.getLastModified() == lastModified) {
+            hash = previous.getHash();
+        } else {
+            hash = Digests.sha256(file);
+            if (copied && !existed) {
+                change = OutputManifest.Change.ADDED;
+            } else if (previous != null && !previous.getHash().equals(hash)) {
+                //even if the copy was up to date: a hard link changes along with its source when that is edited:
+                change = OutputManifest.Change.CHANGED;
+            } else if (previous == null && copied) {
+                //replaced a file that wasn't recorded - one that was up to date (e.g. after the first build) is not:
+                change = OutputManifest.Change.CHANGED;
+            }
+        }
+        manifest.put(path, new OutputManifest.Output(hash, size, lastModified), change);
+        return copied;
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static boolean contentEquals(File file, ByteBuffer content, ByteBuffer chunk) throws IOException {
+        ByteBuffer expected = content.duplicate();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            chunk.clear();
+            while (channel.read(chunk) >= 0) {
+                chunk.flip();
+                int n = chunk.remaining();
+                if (n > expected.remaining()) {
+                    return false;
+                }
+                ByteBuffer slice = expected.duplicate();
+                slice.limit(slice.position() + n);
+                if (!chunk.equals(slice)) {
+                    return false;
+                }
+                expected.position(expected.position() + n);
+                chunk.clear();
+            }
+        }
+        return !expected.hasRemaining();
+    }
+
+    /**
+     * The calling thread's encoder, digest and buffers.
+     */
+    private static class Buffers {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final MessageDigest digest = Digests.newDigest();
+        private final ByteBuffer chunk = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Encodes the specified characters into the (possibly grown) byte buffer, returning it flipped for reading.
+         */
+        private ByteBuffer encode(CharBuffer chars) throws IOException {
+            CharsetEncoder encoder = this.encoder.reset();
+            int estimate = (int) Math.min(Integer.MAX_VALUE - 8, (long) (chars.remaining() * 1.1) + 16);
+            if (bytes.capacity() < estimate) {
+                bytes = ByteBuffer.allocate(estimate);
+            }
+            bytes.clear();
+            CoderResult result;
+            while ((result = encoder.encode(chars, bytes, true)).isOverflow()) {
+                grow();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                grow();
+            }
+            bytes.flip();
+            return bytes;
+        }
+
+        private void grow() {
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, bytes.capacity() * 2L));
+            bytes.flip();
+            grown.put(bytes);
+            bytes = grown;
+        }
+
+        private void trim() {
+            if (bytes.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.leshazlewood.scms.core;
 
+import java.util.Collection;
+
 /**
  * Interface for components that can match source strings against a specified pattern string.
  * <p/>
@@ -36,4 +38,18 @@ public interface PatternMatcher {
      * @return {@code true} if the given {@code source} matches the specified {@code pattern}, {@code false} otherwise.
      */
     boolean matches(String pattern, String source);
+
+    /**
+     * Compiles the specified patterns into a {@link PatternSet} that can find the first pattern matching a source
+     * with a single call.  The default implementation simply calls {@link #matches(String, String)} for each pattern
+     * in turn; implementations are encouraged to return something more efficient when matching a source against many
+     * patterns at once.
+     *
+     * @param patterns the patterns to compile, in priority order
+     * @return a pattern set that matches sources against all of the specified patterns.
+     * @since 0.4
+     */
+    default PatternSet compile(Collection<String> patterns) {
+        return new SimplePatternSet(this, patterns);
+    }
 }
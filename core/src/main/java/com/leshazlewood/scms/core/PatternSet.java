@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.util.List;
+
+/**
+ * An ordered collection of patterns that can be matched against a source string all at once.  Instances are created
+ * by {@link PatternMatcher#compile(java.util.Collection)} and are safe to use concurrently from multiple threads.
+ *
+ * @since 0.4
+ */
+public interface PatternSet {
+
+    /**
+     * Returns the patterns in this set, in the order they were compiled.
+     *
+     * @return the patterns in this set, in the order they were compiled.
+     */
+    List<String> getPatterns();
+
+    /**
+     * Returns the index of the first pattern (in compilation order) that matches the specified {@code source}, or
+     * {@code -1} if no pattern matches.
+     *
+     * @param source the source to match
+     * @return the index of the first matching pattern, or {@code -1} if no pattern matches.
+     */
+    int indexOf(String source);
+}
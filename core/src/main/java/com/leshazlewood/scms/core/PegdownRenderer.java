@@ -2,27 +2,82 @@ package com.leshazlewood.scms.core;
 
 import org.pegdown.PegDownProcessor;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.io.Writer;
-import java.util.ArrayList;
+import java.nio.CharBuffer;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
+/**
+ * Renders Markdown files to HTML using <a href="https://github.com/sirthias/pegdown">pegdown</a>.
+ * <p/>
+ * A {@link PegDownProcessor} may not be used by more than one thread at a time, so this renderer lazily creates one
+ * processor per rendering thread.  This allows a single {@code PegdownRenderer} instance to be shared during
+ * parallel builds.
+ * <p/>
+ * If a {@link RenderBudget} is in effect, the time it has left is used as pegdown's maximum parsing time, and a file
+ * that cannot be parsed in time results in a {@link RenderTimeoutException}.  Processors are cached per maximum parsing
+ * time, so the remaining time is rounded up to a power of two to keep the number of cached processors small.
+ */
+@ThreadSafe
 @SuppressWarnings({"Duplicates", "unchecked"})
 public class PegdownRenderer implements FileRenderer {
 
-    private static final String METADATA_KV_PAIR_DELIMITER = ":";
-
-    private final PegDownProcessor pegDownProcessor;
+    private final ThreadLocal<Map<Long, PegDownProcessor>> pegDownProcessors;
+    private final int extensions;
+    private final PegDownProcessor sharedProcessor; //only set by the deprecated constructor
+    private final boolean legacyStripMetadata; //a subclass overrides stripMetadata(String, Map)
+
+    /**
+     * Creates a new renderer that will use pegdown with the specified extensions enabled.
+     *
+     * @param extensions the pegdown {@link org.pegdown.Extensions Extensions} bitmask
+     */
+    public PegdownRenderer(final int extensions) {
+        this(extensions, null);
+    }
 
+    /**
+     * Creates a new renderer that uses the specified processor for every file.  A processor cannot be used by more
+     * than one thread at a time, so files are rendered one at a time, and a {@link RenderBudget} does not limit
+     * pegdown's parsing time.
+     *
+     * @param pegDownProcessor the processor to render all files with
+     * @deprecated use {@link #PegdownRenderer(int)}, which renders files concurrently and honors render budgets.
+     */
+    @Deprecated
     public PegdownRenderer(PegDownProcessor pegDownProcessor) {
-        this.pegDownProcessor = pegDownProcessor;
+        this(0, pegDownProcessor);
+        if (pegDownProcessor == null) {
+            throw new IllegalArgumentException("pegDownProcessor argument cannot be null.");
+        }
+    }
+
+    private PegdownRenderer(int extensions, PegDownProcessor sharedProcessor) {
+        this.extensions = extensions;
+        this.sharedProcessor = sharedProcessor;
+        this.pegDownProcessors = new ThreadLocal<Map<Long, PegDownProcessor>>() {
+            @Override
+            protected Map<Long, PegDownProcessor> initialValue() {
+                return new HashMap<>();
+            }
+        };
+        this.legacyStripMetadata = overridesLegacyStripMetadata(getClass());
+    }
+
+    private static boolean overridesLegacyStripMetadata(Class<?> c) {
+        for (; c != null && c != PegdownRenderer.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("stripMetadata", String.class, Map.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                //not declared by this class, check its superclass
+            }
+        }
+        return false;
     }
 
     @Override
@@ -48,81 +103,78 @@ public class PegdownRenderer implements FileRenderer {
             model = new LinkedHashMap<>();
         }
 
-        Reader reader = request.getResource().getReader();
-        BufferedReader breader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
-
         Writer writer = request.getWriter();
         BufferedWriter bwriter = (writer instanceof BufferedWriter) ? (BufferedWriter) writer : new BufferedWriter(writer);
 
-        String content = new Scanner(breader).useDelimiter("\\Z").next();
-        content = stripMetadata(content, model);
-        content = pegDownProcessor.markdownToHtml(content);
-
-        bwriter.write(content);
-        bwriter.flush();
-    }
-
-    protected String stripMetadata(String markdown, Map<String, Object> model) {
-        if (model == null) {
-            throw new IllegalArgumentException("model argument cannot be null.");
+        CharBuffer markdown = MarkdownMetadata.read(request.getResource().getReader());
+        if (legacyStripMetadata) {
+            markdown = CharBuffer.wrap(stripMetadata(markdown.toString(), model));
+        } else {
+            markdown = stripMetadata(markdown, model);
         }
-
-        Scanner scanner = new Scanner(markdown);
-        int lineCount = 0;
-        int charCount = 0; //counter for determining where to cut the metadata from non-metadata
-
-        String key = null;
-        List<String> value = new ArrayList<String>();
-
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            lineCount++;
-            charCount += line.length() + 1; //+1 is to account for the newline character that the scanner stripped
-            line = line.trim();
-
-            if (lineCount == 1) {
-                if (line.equals("") || !line.contains(METADATA_KV_PAIR_DELIMITER)) {
-                    //does not conform to Markdown Metadata expectations:
-                    // - cannot be any blank lines above first line of content
-                    // - first line of content must be a ':' delimited key/value pair
-                    return markdown;
-                }
-            } else { //2nd line or more
-                if ("".equals(line)) {
-                    //we found the end of metadata - add last key/value pair and stop looping:
-                    applyValue(model, key, value);
-                    break;
-                }
-            }
-
-            int index = line.indexOf(METADATA_KV_PAIR_DELIMITER);
-            if (index > 0) {
-                applyValue(model, key, value);
-                key = line.substring(0, index).trim();
-                String valueString = line.substring(index + 1).trim();
-                value = new ArrayList<>();
-                value.add(valueString);
-            } else {
-                value.add(line);
+        char[] chars = new char[markdown.remaining()];
+        markdown.get(chars);
+        RenderBudget budget = RenderBudget.current();
+        String content;
+        if (sharedProcessor != null) {
+            synchronized (sharedProcessor) {
+                content = sharedProcessor.markdownToHtml(chars);
             }
+        } else {
+            RenderBudget.check(); //e.g. the metadata took the entire budget
+            content = getPegDownProcessor(budget).markdownToHtml(chars);
+            RenderBudget.check(); //pegdown may have been given more than the remaining time
         }
-
-        if (charCount < markdown.length()) {
-            return markdown.substring(charCount).trim();
+        if (content == null) { //pegdown gave up parsing
+            if (budget != null) {
+                throw budget.timeout();
+            }
+            throw new IllegalStateException("Unable to parse " + request.getResource().getName() +
+                    " within pegdown's maximum parsing time.");
         }
 
-        return markdown;
+        bwriter.write(content);
+        bwriter.flush();
     }
 
-    private void applyValue(Map<String, Object> model, String key, List<String> value) {
-        if (key != null && value != null && !value.isEmpty()) {
-            if (value.size() == 1) {
-                model.put(key, value.get(0));
-            } else {
-                model.put(key, value);
-            }
+    private PegDownProcessor getPegDownProcessor(RenderBudget budget) {
+        long maxParsingTime = budget != null ? maxParsingTime(budget.getRemainingMillis()) : 0;
+        Map<Long, PegDownProcessor> processors = pegDownProcessors.get();
+        PegDownProcessor processor = processors.get(maxParsingTime);
+        if (processor == null) {
+            processor = maxParsingTime > 0 ? new PegDownProcessor(extensions, maxParsingTime) :
+                    new PegDownProcessor(extensions);
+            processors.put(maxParsingTime, processor);
         }
+        return processor;
     }
 
+    /**
+     * Returns the specified remaining time rounded up to a power of two, at least one millisecond, so pegdown is never
+     * given less time than the budget allows while only a few processors are cached per thread.  The budget itself
+     * still ends the render if pegdown uses the extra time.
+     */
+    static long maxParsingTime(long remainingMillis) {
+        long millis = Math.max(1, remainingMillis);
+        long bucket = Long.highestOneBit(millis);
+        return bucket == millis || bucket == Long.highestOneBit(Long.MAX_VALUE) ? bucket : bucket << 1;
+    }
 
+    protected CharBuffer stripMetadata(CharSequence markdown, Map<String, Object> model) {
+        return MarkdownMetadata.strip(markdown, model);
+    }
+
+    /**
+     * Removes the metadata block from the specified Markdown, adding its values to the model.  Only called if a
+     * subclass overrides it, in which case it is used instead of {@link #stripMetadata(CharSequence, Map)}.
+     *
+     * @param markdown the Markdown file's content
+     * @param model    the model to add the metadata to
+     * @return the Markdown without its metadata block
+     * @deprecated override {@link #stripMetadata(CharSequence, Map)}, which doesn't copy the file's content.
+     */
+    @Deprecated
+    protected String stripMetadata(String markdown, Map<String, Object> model) {
+        return MarkdownMetadata.strip(markdown, model);
+    }
 }
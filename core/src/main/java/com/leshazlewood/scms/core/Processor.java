@@ -1,6 +1,7 @@
 package com.leshazlewood.scms.core;
 
 import java.io.File;
+import java.util.Collection;
 
 public interface Processor {
 
@@ -10,9 +11,100 @@ public interface Processor {
 
     void setConfigFile(File configFile);
 
+    /**
+     * Sets the directory that state kept between builds (e.g. the {@link OutputManifest} and {@link BuildManifest}) is
+     * stored in.  It must not be inside the destination directory, so that none of it is published with the site.
+     * <p/>
+     * The default implementation ignores this setting.
+     *
+     * @param stateDir the state directory, or {@code null} for the implementation's default
+     * @since 0.4
+     */
+    default void setStateDir(File stateDir) {
+    }
+
     void setEnvironment(String envName);
 
+    /**
+     * Sets the maximum number of files that may be rendered concurrently.  The default is {@code 1}, which renders
+     * every file on the calling thread.  Otherwise source files are read and output files are written on separate
+     * I/O threads (see {@link RenderPipeline}) so that slow disks don't hold up rendering, and the files that took
+     * longest to render in previous builds (see {@link RenderCosts}) are started first.  The rendered output is
+     * identical regardless of this value.
+     * <p/>
+     * The default implementation ignores this setting and renders serially.
+     *
+     * @param jobs the maximum number of files to render concurrently, must be greater than zero.
+     * @since 0.4
+     */
+    default void setJobs(int jobs) {
+    }
+
+    /**
+     * Enables or disables incremental builds.  When enabled, a {@link BuildManifest} is kept in the
+     * {@link #setStateDir state directory} and any source file whose content, configuration and templates are unchanged since the previous
+     * incremental build is not rendered again.  Disabled by default.
+     * <p/>
+     * The default implementation ignores this setting and always renders every source file.
+     *
+     * @param incremental whether to skip unchanged source files.
+     * @since 0.4
+     */
+    default void setIncremental(boolean incremental) {
+    }
+
+    /**
+     * Sets the statistics that subsequent builds record their per-phase, per-renderer and per-file timings into, or
+     * {@code null} (the default) to not record any.
+     * <p/>
+     * The default implementation ignores this setting and records nothing.
+     *
+     * @param stats the statistics to record into, may be {@code null}.
+     * @since 0.4
+     */
+    default void setStats(BuildStats stats) {
+    }
+
+    /**
+     * Sets the cache that rendered output is reused from and stored in, or {@code null} (the default) to always
+     * render.
+     * <p/>
+     * The default implementation ignores this setting and always renders.
+     *
+     * @param renderCache the cache to use, may be {@code null}.
+     * @since 0.4
+     */
+    default void setRenderCache(RenderCache renderCache) {
+    }
+
+    /**
+     * Enables the {@link VelocityProfiler} and sets the file its flat profile is written to after every build.
+     * Disabled ({@code null}) by default.  Must be set before {@link #init()}.
+     * <p/>
+     * The default implementation ignores this setting and writes no profile.
+     *
+     * @param file the file to write the profile to, may be {@code null}.
+     * @since 0.4
+     */
+    default void setVelocityProfile(File file) {
+    }
+
     void init();
 
     void run();
+
+    /**
+     * Processes only the specified changed source files after an initial {@link #run()}, reusing all state created
+     * during {@link #init()}.  Implementations may decide that a change requires processing the entire tree, for
+     * example when the configuration file itself changed.
+     * <p/>
+     * The default implementation processes the entire tree by calling {@link #run()}.
+     *
+     * @param changedFiles the source files and directories that were created, modified or deleted since the last
+     *                     run or update.
+     * @since 0.4
+     */
+    default void update(Collection<File> changedFiles) {
+        run();
+    }
 }
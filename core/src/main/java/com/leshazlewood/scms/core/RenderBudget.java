@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time a single file may spend being rendered.  A budget is {@link #start started} on the rendering thread
+ * before the file's renderers run and {@link #end ended} afterwards; renderers then call {@link #check()} at points
+ * where they can safely give up, which throws a {@link RenderTimeoutException} once the budget is exhausted.
+ * <p/>
+ * Renderers cannot be forcibly stopped, so the budget is enforced cooperatively:
+ * <ul>
+ * <li>{@link PegdownRenderer} passes the {@link #getRemainingMillis() remaining} time to pegdown as its maximum
+ * parsing time.</li>
+ * <li>{@link VelocityRenderer} checks the budget whenever the template inserts a reference or writes output, see
+ * {@link RenderBudgetEventHandler} and {@link #wrap(Writer)}, and on every {@code #foreach} iteration, see
+ * {@link RenderBudgetForeach}.</li>
+ * </ul>
+ *
+ * @since 0.4
+ */
+public final class RenderBudget {
+
+    private static final ThreadLocal<RenderBudget> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    private final long millis;
+    private final long deadline; //System.nanoTime() based
+
+    private RenderBudget(String name, long millis) {
+        this.name = name;
+        this.millis = millis;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Starts a budget of the specified number of milliseconds for the calling thread.
+     *
+     * @param name   the name of the file being rendered, used in the timeout message
+     * @param millis the number of milliseconds the file may be rendered for, must be greater than zero
+     * @return the started budget, to be {@link #end ended} when rendering completes
+     */
+    public static RenderBudget start(String name, long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis must be greater than zero.");
+        }
+        RenderBudget budget = new RenderBudget(name, millis);
+        CURRENT.set(budget);
+        return budget;
+    }
+
+    /**
+     * Returns the calling thread's budget, or {@code null} if rendering on this thread is not time limited.
+     *
+     * @return the calling thread's budget, or {@code null} if rendering on this thread is not time limited.
+     */
+    public static RenderBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Throws a {@link RenderTimeoutException} if the calling thread's budget is exhausted.  Does nothing if there is
+     * no budget.
+     */
+    public static void check() {
+        RenderBudget budget = CURRENT.get();
+        if (budget != null && System.nanoTime() - budget.deadline > 0) {
+            throw budget.timeout();
+        }
+    }
+
+    /**
+     * Returns a writer that {@link #check() checks} the calling thread's budget before every write, or the writer
+     * itself if there is no budget.
+     *
+     * @param writer the writer to check
+     * @return a writer that checks the calling thread's budget before every write.
+     */
+    public static Writer wrap(Writer writer) {
+        if (CURRENT.get() == null) {
+            return writer;
+        }
+        return new FilterWriter(writer) {
+            @Override
+            public void write(int c) throws IOException {
+                check();
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                check();
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                check();
+                super.write(str, off, len);
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link RenderTimeoutException} that caused the specified exception (which may be the exception
+     * itself), or {@code null} if it was not caused by an exhausted budget.  Renderers (notably Velocity) may wrap the
+     * timeout in their own exceptions.
+     *
+     * @param t the exception to inspect
+     * @return the timeout that caused the exception, or {@code null} if it was not caused by an exhausted budget.
+     */
+    public static RenderTimeoutException getTimeout(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RenderTimeoutException) {
+                return (RenderTimeoutException) cause;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Returns the number of milliseconds left until this budget is exhausted, {@code 0} if it already is.
+     *
+     * @return the number of milliseconds left until this budget is exhausted, {@code 0} if it already is.
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Returns the exception to throw when this budget is exhausted.
+     *
+     * @return the exception to throw when this budget is exhausted.
+     */
+    public RenderTimeoutException timeout() {
+        return new RenderTimeoutException(name, millis);
+    }
+
+    /**
+     * Ends this budget.  Rendering on the calling thread is no longer time limited afterwards.
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.app.event.ReferenceInsertionEventHandler;
+
+/**
+ * A Velocity event handler that {@link RenderBudget#check() checks} the rendering thread's {@link RenderBudget}
+ * every time a template inserts a reference, so a runaway {@code #foreach} or recursive macro is stopped shortly after
+ * its file's budget is exhausted.  The check is a thread-local lookup when no budget is in effect.
+ *
+ * @since 0.4
+ */
+public class RenderBudgetEventHandler implements ReferenceInsertionEventHandler {
+
+    @Override
+    public Object referenceInsert(String reference, Object value) {
+        RenderBudget.check();
+        return value;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.directive.Foreach;
+
+/**
+ * A {@code #foreach} directive that {@link RenderBudget#check() checks} the rendering thread's {@link RenderBudget}
+ * on every iteration, so a loop that neither inserts references nor writes output (e.g. one that only {@code #set}s
+ * variables) is still stopped once its file's budget is exhausted.  Replaces Velocity's own {@code #foreach}.
+ *
+ * @since 0.4
+ */
+public class RenderBudgetForeach extends Foreach {
+
+    @Override
+    protected void put(InternalContextAdapter context, String key, Object value) {
+        //called for the loop variable (and counters) before every iteration:
+        RenderBudget.check();
+        super.put(context, key, value);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A growable character buffer that receives one renderer's output and can then be read by the next renderer (or
+ * written to the destination file) without copying its contents, as a {@code StringWriter}'s {@code toString()}
+ * would.
+ * <p/>
+ * Buffers are pooled: {@link #acquire()} returns a previously {@link #release() released} buffer when one is
+ * available, so a build reuses a handful of already-grown arrays instead of allocating new ones for every render step
+ * of every file.  The pool is shared by all threads because a buffer filled on one thread (a render stage, say) is
+ * usually released on another (the write stage).  It is bounded, and unusually large buffers are not retained, so one
+ * huge page doesn't pin its memory for the rest of the build.
+ *
+ * @since 0.4
+ */
+public class RenderBuffer extends CharArrayWriter {
+
+    private static final int INITIAL_SIZE = 8192;
+
+    //buffers that grew beyond this (in chars) are left to the garbage collector when released:
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final BlockingDeque<RenderBuffer> POOL = new LinkedBlockingDeque<>(MAX_POOLED_BUFFERS);
+
+    public RenderBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * Returns an empty buffer, reusing a previously released one if possible.
+     *
+     * @return an empty buffer.
+     */
+    public static RenderBuffer acquire() {
+        RenderBuffer buffer = POOL.pollFirst();
+        return buffer != null ? buffer : new RenderBuffer();
+    }
+
+    /**
+     * Empties this buffer and returns it to the pool, unless the pool is full.  The buffer, and any reader or
+     * {@link RenderedContent} obtained from it, must not be used afterwards.  It may be released by a different thread
+     * than the one that acquired it.
+     */
+    public void release() {
+        reset();
+        if (buf.length <= MAX_RETAINED_SIZE) {
+            POOL.offerFirst(this);
+        }
+    }
+
+    /**
+     * Returns a reader over this buffer's current contents.  The contents are not copied, so the buffer must not be
+     * modified while the reader is in use.
+     *
+     * @return a reader over this buffer's current contents.
+     */
+    public Reader getReader() {
+        return new CharArrayReader(buf, 0, count);
+    }
+
+    /**
+     * Returns a view of this buffer's current contents.  The contents are not copied, so the buffer must not be
+     * modified while the view is in use.
+     *
+     * @return a view of this buffer's current contents.
+     */
+    public CharBuffer toCharBuffer() {
+        return CharBuffer.wrap(buf, 0, count);
+    }
+
+    char charAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + count);
+        }
+        return buf[index];
+    }
+}
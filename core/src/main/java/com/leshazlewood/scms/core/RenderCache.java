@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent, content-addressed cache of rendered output files.
+ * <p/>
+ * An entry's key is a hash of everything that determines a file's output except the templates it uses - its source
+ * bytes, effective configuration, renderer chain and output path (see {@code DefaultProcessor}).  The templates
+ * (including transitive {@code #parse} and {@code #include} targets) are only known after rendering, so each entry
+ * stores the hashes of the templates it was rendered with, which must still match for the entry to be used.
+ * <p/>
+ * Because entries are keyed by content rather than file modification times, the cache remains valid across
+ * {@code git checkout}s, branch switches and fresh CI workspaces.  It is a plain directory that can be shared by
+ * several builds, even concurrently: entries are written to a temporary file and atomically moved into place, and an
+ * unreadable entry is treated as a miss.  Once the cache exceeds its maximum size, the least recently used entries
+ * (by file modification time, which is updated on every hit) are deleted.
+ *
+ * @since 0.4
+ */
+public class RenderCache {
+
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    private static final String MAGIC = "scms-render-cache 1";
+    private static final double EVICTION_TARGET = 0.9; //evict down to 90% so eviction doesn't run on every put
+
+    private final File dir;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong(-1); //-1: not yet scanned
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RenderCache(File dir) {
+        this(dir, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache in the specified directory, which is created if necessary.
+     *
+     * @param dir     the cache directory
+     * @param maxSize the maximum total size of all entries in bytes
+     */
+    public RenderCache(File dir, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than zero.");
+        }
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the entry with the specified key, or {@code null} if there is none (or it cannot be read).
+     *
+     * @param key the entry's key, a hex-encoded hash
+     * @return the entry with the specified key, or {@code null} if there is none.
+     */
+    public Entry get(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            misses.increment();
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            HeaderReader reader = new HeaderReader(in);
+            if (!MAGIC.equals(reader.readLine())) {
+                misses.increment();
+                return null;
+            }
+            int count = Integer.parseInt(reader.readLine());
+            Map<String, String> templates = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String line = reader.readLine();
+                int space = line.indexOf(' ');
+                templates.put(line.substring(space + 1), line.substring(0, space));
+            }
+            return new Entry(file, templates, reader.offset);
+        } catch (IOException | RuntimeException e) {
+            //deleted by another build in the meantime, or corrupt:
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the specified output file under the specified key.
+     *
+     * @param key       the entry's key, a hex-encoded hash
+     * @param templates the hashes of the templates the output was rendered with, by template name
+     * @param output    the rendered output file
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, Map<String, String> templates, File output) throws IOException {
+        File file = getFile(key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+
+        StringBuilder header = new StringBuilder(MAGIC).append('\n').append(templates.size()).append('\n');
+        for (Map.Entry<String, String> e : templates.entrySet()) {
+            header.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+
+        File tmp = File.createTempFile(key, ".tmp", parent);
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+                Files.copy(output.toPath(), out);
+            }
+            long length = tmp.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (getSize() + length > maxSize) {
+                evict();
+            } else {
+                size.addAndGet(length);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private File getFile(String key) {
+        //fan out into 256 subdirectories so no single directory gets too large:
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    private long getSize() {
+        long current = size.get();
+        if (current < 0) {
+            synchronized (this) {
+                current = size.get();
+                if (current < 0) {
+                    current = 0;
+                    for (File f : listEntries()) {
+                        current += f.length();
+                    }
+                    size.set(current);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is below its eviction target.  The size is re-measured
+     * from the directory, which other builds sharing the cache may have changed.
+     */
+    private synchronized void evict() {
+        List<File> entries = listEntries();
+        final Map<File, Long> lastModified = new LinkedHashMap<>();
+        long total = 0;
+        for (File f : entries) {
+            lastModified.put(f, f.lastModified());
+            total += f.length();
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastModified.get(a), lastModified.get(b));
+            }
+        });
+        long target = (long) (maxSize * EVICTION_TARGET);
+        for (File f : entries) {
+            if (total <= target) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+        size.set(total);
+    }
+
+    private List<File> listEntries() {
+        List<File> entries = new ArrayList<>();
+        File[] subdirs = dir.listFiles();
+        if (subdirs == null) {
+            return entries;
+        }
+        for (File subdir : subdirs) {
+            File[] files = subdir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (f.isFile() && !f.getName().endsWith(".tmp")) {
+                    entries.add(f);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A cached output file.
+     */
+    public class Entry {
+
+        private final File file;
+        private final Map<String, String> templates;
+        private final long offset;
+
+        private Entry(File file, Map<String, String> templates, long offset) {
+            this.file = file;
+            this.templates = templates;
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the hashes of the templates the output was rendered with, by template name.
+         *
+         * @return the hashes of the templates the output was rendered with, by template name.
+         */
+        public Map<String, String> getTemplates() {
+            return Collections.unmodifiableMap(templates);
+        }
+
+        /**
+         * Reads the cached output and marks the entry as recently used.
+         *
+         * @return the cached output, ready to be read
+         * @throws IOException if the output cannot be read
+         */
+        public ByteBuffer read() throws IOException {
+            ByteBuffer content;
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = in.size() - offset;
+                if (size < 0 || size > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid render cache entry " + file);
+                }
+                content = ByteBuffer.allocate((int) size);
+                long position = offset;
+                while (content.hasRemaining() && in.read(content, position) >= 0) {
+                    position = offset + content.position();
+                }
+            }
+            content.flip();
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            hits.increment();
+            return content;
+        }
+    }
+
+    /**
+     * Reads the UTF-8 header lines of an entry, counting the bytes read so the content can be copied from its offset.
+     */
+    private static class HeaderReader {
+
+        private final InputStream in;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        private long offset;
+
+        private HeaderReader(InputStream in) {
+            this.in = in;
+        }
+
+        private String readLine() throws IOException {
+            line.reset();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Unexpected end of render cache entry.");
+                }
+                line.write(b);
+            }
+            offset += line.size() + 1;
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The time each source file took to render in previous builds.  Concurrent builds use these costs to render the
+ * most expensive files first (longest processing time first scheduling), so that a single huge page rendered near the
+ * end of the build doesn't keep all other threads waiting for it.  Files without a recorded cost are estimated from
+ * their size, using the average cost per byte of the files that do have one.
+ * <p/>
+ * Costs are persisted in the state directory (see {@link Processor#setStateDir}) after each concurrent build.
+ * Instances are safe to update concurrently from multiple rendering threads.
+ *
+ * @since 0.4
+ */
+public class RenderCosts {
+
+    public static final String DEFAULT_FILE_NAME = ".scms-costs.json";
+
+    //increment whenever the persisted format changes so older files are discarded rather than misread:
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, Long> micros = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the recorded cost of the specified source file in microseconds, or {@code null} if it is unknown.
+     *
+     * @param sourcePath the relative path of the source file
+     * @return the recorded cost in microseconds, or {@code null} if it is unknown.
+     */
+    public Long get(String sourcePath) {
+        return micros.get(sourcePath);
+    }
+
+    /**
+     * Records the time it took to render the specified source file.  The time is averaged with the previously
+     * recorded cost (if any) so one unusually slow or fast build doesn't reorder the next one.
+     *
+     * @param sourcePath the relative path of the source file
+     * @param nanos      the time it took to render the file, in nanoseconds
+     */
+    public void put(String sourcePath, long nanos) {
+        long cost = nanos / 1000;
+        Long previous = micros.put(sourcePath, cost);
+        if (previous != null) {
+            micros.put(sourcePath, (previous + cost) / 2);
+        }
+    }
+
+    /**
+     * Discards the costs of all source files other than the specified ones, e.g. files that no longer exist.
+     *
+     * @param sourcePaths the relative paths of the source files to keep
+     */
+    public void retain(Collection<String> sourcePaths) {
+        Set<String> retained = sourcePaths instanceof Set ? (Set<String>) sourcePaths : new HashSet<>(sourcePaths);
+        micros.keySet().retainAll(retained);
+    }
+
+    public int size() {
+        return micros.size();
+    }
+
+    /**
+     * Returns the specified files ordered by their (recorded or estimated) cost, most expensive first.  Files of equal
+     * cost keep their relative order.
+     *
+     * @param files the files to order
+     * @return a new list of the files, most expensive first.
+     */
+    public List<SourceFile> longestFirst(Collection<SourceFile> files) {
+        long knownMicros = 0;
+        long knownBytes = 0;
+        for (SourceFile f : files) {
+            Long cost = micros.get(f.getRelativePath());
+            if (cost != null) {
+                knownMicros += cost;
+                knownBytes += f.getSize();
+            }
+        }
+        //without any history, the order by size is all we can go by:
+        final double microsPerByte = knownBytes > 0 ? (double) knownMicros / knownBytes : 1d;
+
+        final Map<SourceFile, Double> estimates = new LinkedHashMap<>(files.size() * 4 / 3 + 1);
+        for (SourceFile f : files) {
+            Long cost = micros.get(f.getRelativePath());
+            estimates.put(f, cost != null ? cost.doubleValue() : f.getSize() * microsPerByte);
+        }
+
+        List<SourceFile> ordered = new ArrayList<>(files);
+        Collections.sort(ordered, new Comparator<SourceFile>() {
+            @Override
+            public int compare(SourceFile a, SourceFile b) {
+                return Double.compare(estimates.get(b), estimates.get(a));
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Loads the costs persisted at the specified location, returning empty costs if the file does not exist or was
+     * written in an unsupported format.
+     *
+     * @param file the persisted costs file
+     * @return the loaded costs, never {@code null}.
+     * @throws IOException if the file exists but cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static RenderCosts load(File file) throws IOException {
+        RenderCosts costs = new RenderCosts();
+        if (!file.isFile()) {
+            return costs;
+        }
+
+        Map<String, Object> root;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Object parsed = new JsonSlurper().parse(reader);
+            if (!(parsed instanceof Map)) {
+                return costs;
+            }
+            root = (Map<String, Object>) parsed;
+        } catch (RuntimeException e) {
+            //corrupt costs only mean the next build is scheduled by file size:
+            return costs;
+        }
+
+        Object version = root.get("version");
+        if (!(version instanceof Number) || ((Number) version).intValue() != FORMAT_VERSION) {
+            return costs;
+        }
+
+        Object files = root.get("micros");
+        if (files instanceof Map) {
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) files).entrySet()) {
+                if (e.getValue() instanceof Number) {
+                    costs.micros.put(e.getKey(), ((Number) e.getValue()).longValue());
+                }
+            }
+        }
+
+        return costs;
+    }
+
+    /**
+     * Persists these costs to the specified file, via a temporary sibling that is moved into place.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("version", FORMAT_VERSION);
+        root.put("micros", new TreeMap<>(micros)); //sorted for stable, diff-friendly output
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(JsonOutput.prettyPrint(JsonOutput.toJson(root)));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
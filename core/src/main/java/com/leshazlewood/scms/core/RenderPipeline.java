@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a build as three pipelined stages, each on its own thread pool: reading source files, rendering them and
+ * writing (or copying) the output.  Reads and writes block on disk (or network) I/O rather than the CPU, so those
+ * stages have more threads than the render stage, which is sized to the number of files that should be rendered
+ * concurrently.  This keeps the render threads busy even when the file system is slow.
+ * <p/>
+ * A file is {@link #submit submitted} to the read stage; each stage's {@link Task} then hands the file on to the
+ * next stage by calling {@link #render(Task)} or {@link #write(Task)}, or finishes it by not doing so.  To bound the
+ * memory used by files that have been read but not yet written, {@code submit} blocks while too many files, or too
+ * many bytes, are in flight.  Both are released when a file's last task completes.
+ * <p/>
+ * The in-flight file limit also adapts to heap usage: while the heap stays nearly full for several checks in a row,
+ * fewer files are admitted (down to one at a time), and the full limit is restored once usage drops well below that.  This
+ * trades throughput for not running out of memory when many large pages are rendered at once.
+ * <p/>
+ * The first task to fail stops the pipeline: files that are still queued are skipped, further submissions fail and
+ * {@link #await()} rethrows the failure once all running tasks have completed.
+ *
+ * @since 0.4
+ */
+public class RenderPipeline implements Closeable {
+
+    /**
+     * The default maximum number of bytes in flight: 64 MB.
+     */
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+    //the fraction of the maximum heap in use above which fewer files are admitted, and below which the full limit is
+    //restored.  The current usage includes garbage, so it has to be high for several checks in a row to count:
+    private static final double HIGH_HEAP_USAGE = 0.85;
+    private static final double LOW_HEAP_USAGE = 0.6;
+    private static final int HIGH_HEAP_USAGE_CHECKS = 3;
+
+    private static final long HEAP_CHECK_INTERVAL_NANOS = 100L * 1000 * 1000;
+
+    /**
+     * A single stage of a single file.
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final ExecutorService readExecutor;
+    private final ExecutorService renderExecutor;
+    private final ExecutorService writeExecutor;
+
+    private final Semaphore files;
+    private final Semaphore kilobytes; //bytes in flight, in KB so that large limits fit into an int
+    private final int maxKilobytes;
+    private final int maxFiles;
+    private int throttledFiles; //permits withheld from files because of heap pressure, only used by submit
+    private int highHeapUsageChecks; //consecutive checks that found the heap usage high, only used by submit
+    private long lastHeapCheck;
+
+    private final ThreadLocal<Step> current = new ThreadLocal<>();
+    private final Object lock = new Object();
+    private int pending; //guarded by lock
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param ioThreads        the number of threads reading source files, and the number writing output files
+     * @param renderThreads    the number of threads rendering files
+     * @param maxInFlightFiles the maximum number of files submitted but not yet finished
+     * @param maxInFlightBytes the maximum total size of the files submitted but not yet finished.  A single file
+     *                         larger than this is admitted once no other file is in flight.
+     */
+    public RenderPipeline(int ioThreads, int renderThreads, int maxInFlightFiles, long maxInFlightBytes) {
+        if (ioThreads < 1 || renderThreads < 1 || maxInFlightFiles < 1 || maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("Thread counts and in-flight limits must be greater than zero.");
+        }
+        this.readExecutor = Executors.newFixedThreadPool(ioThreads, threadFactory("scms-read"));
+        this.renderExecutor = Executors.newFixedThreadPool(renderThreads, threadFactory("scms-render"));
+        this.writeExecutor = Executors.newFixedThreadPool(ioThreads, threadFactory("scms-write"));
+        this.files = new Semaphore(maxInFlightFiles);
+        this.maxFiles = maxInFlightFiles;
+        this.maxKilobytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / 1024));
+        this.kilobytes = new Semaphore(maxKilobytes);
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Runs the specified task on the read stage once the file's size fits within the in-flight limits, blocking the
+     * calling thread until it does.
+     *
+     * @param size the size of the file in bytes
+     * @param task the file's first task
+     * @throws IOException if a task has already failed, or the calling thread is interrupted while waiting
+     */
+    public void submit(long size, Task task) throws IOException {
+        checkFailure();
+        adaptToHeapUsage();
+        int kb = (int) Math.min(maxKilobytes, Math.max(1, (size + 1023) / 1024));
+        try {
+            files.acquire();
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+        try {
+            kilobytes.acquire(kb);
+        } catch (InterruptedException e) {
+            files.release();
+            throw interrupted();
+        }
+        schedule(readExecutor, new Step(kb, task));
+    }
+
+    /**
+     * Hands the current file on to the render stage.  May only be called by a running task.
+     *
+     * @param task the file's next task
+     */
+    public void render(Task task) {
+        next(renderExecutor, task);
+    }
+
+    /**
+     * Hands the current file on to the write stage.  May only be called by a running task.
+     *
+     * @param task the file's next task
+     */
+    public void write(Task task) {
+        next(writeExecutor, task);
+    }
+
+    private void adaptToHeapUsage() {
+        long now = System.nanoTime();
+        if (now - lastHeapCheck < HEAP_CHECK_INTERVAL_NANOS) {
+            return;
+        }
+        lastHeapCheck = now;
+        adaptToHeapUsage(getHeapUsage());
+    }
+
+    /**
+     * Withholds half of the remaining file permits once heap usage has been high for several checks in a row, and
+     * returns all of them once it is low again.  Between the two thresholds, the limit is left as it is.
+     *
+     * @param usage the fraction of the maximum heap currently in use
+     */
+    void adaptToHeapUsage(double usage) {
+        if (usage > HIGH_HEAP_USAGE) {
+            if (++highHeapUsageChecks < HIGH_HEAP_USAGE_CHECKS) {
+                return;
+            }
+            highHeapUsageChecks = 0; //halving the limit again takes as many checks
+            //permits of files still in flight are withheld by later checks, once those files are done:
+            int withhold = Math.min((maxFiles - throttledFiles) / 2, files.availablePermits());
+            if (withhold > 0 && files.tryAcquire(withhold)) {
+                throttledFiles += withhold;
+            }
+            return;
+        }
+        highHeapUsageChecks = 0;
+        if (usage < LOW_HEAP_USAGE && throttledFiles > 0) {
+            files.release(throttledFiles);
+            throttledFiles = 0;
+        }
+    }
+
+    /**
+     * Returns the maximum number of files currently admitted, which is lower than the configured maximum while heap
+     * usage is high.
+     *
+     * @return the maximum number of files currently admitted.
+     */
+    int getFileLimit() {
+        return maxFiles - throttledFiles;
+    }
+
+    /**
+     * Returns the fraction of the maximum heap currently in use, garbage included.
+     *
+     * @return the fraction of the maximum heap currently in use.
+     */
+    double getHeapUsage() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : Runtime.getRuntime().maxMemory();
+        return (double) heap.getUsed() / max;
+    }
+
+    private void next(ExecutorService executor, Task task) {
+        Step step = current.get();
+        if (step == null) {
+            throw new IllegalStateException("Only a running task can hand its file on to the next stage.");
+        }
+        step.handedOn = true;
+        schedule(executor, new Step(step.kilobytes, task));
+    }
+
+    private void schedule(ExecutorService executor, Step step) {
+        synchronized (lock) {
+            pending++;
+        }
+        executor.execute(step);
+    }
+
+    /**
+     * Waits until every submitted file has finished, then rethrows the first failure, if any.
+     *
+     * @throws IOException the first failure, or if the calling thread is interrupted while waiting
+     */
+    public void await() throws IOException {
+        synchronized (lock) {
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw interrupted();
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        throw new IOException(t.getMessage(), t);
+    }
+
+    private void fail(Throwable t) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+    }
+
+    private static IOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("Interrupted while waiting for the build pipeline.");
+    }
+
+    /**
+     * Stops all threads.  Tasks that have not started yet are never run.
+     */
+    @Override
+    public void close() {
+        readExecutor.shutdownNow();
+        renderExecutor.shutdownNow();
+        writeExecutor.shutdownNow();
+    }
+
+    private class Step implements Runnable {
+
+        private final int kilobytes;
+        private final Task task;
+        private boolean handedOn;
+
+        Step(int kilobytes, Task task) {
+            this.kilobytes = kilobytes;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            current.set(this);
+            try {
+                if (failure == null) {
+                    task.run();
+                }
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                current.remove();
+                if (!handedOn) {
+                    RenderPipeline.this.kilobytes.release(kilobytes);
+                    files.release();
+                }
+                synchronized (lock) {
+                    if (--pending == 0) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+/**
+ * Thrown when a file could not be rendered within its {@link RenderBudget}.
+ *
+ * @since 0.4
+ */
+public class RenderTimeoutException extends RuntimeException {
+
+    private final String name;
+    private final long millis;
+
+    public RenderTimeoutException(String name, long millis) {
+        super("Rendering " + name + " exceeded its budget of " + millis + " ms.");
+        this.name = name;
+        this.millis = millis;
+    }
+
+    /**
+     * Returns the name of the file that could not be rendered in time.
+     *
+     * @return the name of the file that could not be rendered in time.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.Renderable;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The rendered content of a page, made available to its template as {@code $content}.
+ * <p/>
+ * When a template references {@code $content}, Velocity asks this object to {@link #render render} itself, which
+ * writes the underlying {@link RenderBuffer} straight to the template's output without ever creating a
+ * {@code String}.  Templates that treat the content as a string (e.g. {@code $content.trim()} or passing it to a
+ * tool) still work: it is a {@link CharSequence}, {@link #toString()} materializes the string on demand, and the
+ * {@link RenderedContentUberspect} invokes any other {@code String} method on that string.
+ *
+ * @since 0.4
+ */
+public class RenderedContent implements CharSequence, Renderable {
+
+    private final RenderBuffer buffer;
+
+    public RenderedContent(RenderBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer argument cannot be null.");
+        }
+        this.buffer = buffer;
+    }
+
+    @Override
+    public boolean render(InternalContextAdapter context, Writer writer) throws IOException {
+        buffer.writeTo(writer);
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return buffer.size();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
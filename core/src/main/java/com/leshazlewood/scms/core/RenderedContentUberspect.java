@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.util.introspection.Info;
+import org.apache.velocity.util.introspection.UberspectImpl;
+import org.apache.velocity.util.introspection.VelMethod;
+import org.apache.velocity.util.introspection.VelPropertyGet;
+
+/**
+ * Lets templates call any {@code String} method on a {@link RenderedContent}, e.g. {@code $content.trim()} or
+ * {@code $content.replace('a', 'b')}, as they could when {@code $content} was a {@code String}: a method or property
+ * that {@code RenderedContent} itself doesn't have is looked up on {@code String} instead and invoked on the
+ * content's {@link RenderedContent#toString() string}.  Every other object is introspected as usual.
+ *
+ * @since 0.4
+ */
+public class RenderedContentUberspect extends UberspectImpl {
+
+    @Override
+    public VelMethod getMethod(Object obj, String methodName, Object[] args, Info i) throws Exception {
+        VelMethod method = super.getMethod(obj, methodName, args, i);
+        if (method == null && obj instanceof RenderedContent) {
+            method = super.getMethod(obj.toString(), methodName, args, i);
+            if (method != null) {
+                method = new StringMethod(method);
+            }
+        }
+        return method;
+    }
+
+    @Override
+    public VelPropertyGet getPropertyGet(Object obj, String identifier, Info i) throws Exception {
+        VelPropertyGet getter = super.getPropertyGet(obj, identifier, i);
+        if (getter == null && obj instanceof RenderedContent) {
+            getter = super.getPropertyGet(obj.toString(), identifier, i);
+            if (getter != null) {
+                getter = new StringPropertyGet(getter);
+            }
+        }
+        return getter;
+    }
+
+    private static class StringMethod implements VelMethod {
+
+        private final VelMethod method;
+
+        private StringMethod(VelMethod method) {
+            this.method = method;
+        }
+
+        @Override
+        public Object invoke(Object o, Object[] params) throws Exception {
+            return method.invoke(o.toString(), params);
+        }
+
+        @Override
+        public boolean isCacheable() {
+            return method.isCacheable();
+        }
+
+        @Override
+        public String getMethodName() {
+            return method.getMethodName();
+        }
+
+        @Override
+        public Class getReturnType() {
+            return method.getReturnType();
+        }
+    }
+
+    private static class StringPropertyGet implements VelPropertyGet {
+
+        private final VelPropertyGet getter;
+
+        private StringPropertyGet(VelPropertyGet getter) {
+            this.getter = getter;
+        }
+
+        @Override
+        public Object invoke(Object o) throws Exception {
+            return getter.invoke(o.toString());
+        }
+
+        @Override
+        public boolean isCacheable() {
+            return getter.isCacheable();
+        }
+
+        @Override
+        public String getMethodName() {
+            return getter.getMethodName();
+        }
+    }
+}
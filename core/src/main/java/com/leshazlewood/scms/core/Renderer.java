@@ -2,6 +2,15 @@ package com.leshazlewood.scms.core;
 
 import java.io.IOException;
 
+/**
+ * Renders a {@link RenderRequest}'s resource to the request's writer.
+ * <h3>Thread Safety</h3>
+ * When a {@link Processor} is configured with more than one {@link Processor#setJobs(int) job}, a single renderer
+ * instance may be asked to render many files at once from different threads.  Implementations that can safely be
+ * shared across threads should be annotated with {@link ThreadSafe @ThreadSafe}.  A renderer without that annotation
+ * is assumed to be unsafe for concurrent use and the processor will only ever invoke it from one thread at a time,
+ * serializing all of that renderer's work.
+ */
 public interface Renderer {
 
     void render(RenderRequest request) throws IOException;
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PatternSet} that simply asks a {@link PatternMatcher} about each pattern in turn until one matches.
+ *
+ * @since 0.4
+ */
+public class SimplePatternSet implements PatternSet {
+
+    private final PatternMatcher patternMatcher;
+    private final List<String> patterns;
+
+    public SimplePatternSet(PatternMatcher patternMatcher, Collection<String> patterns) {
+        this.patternMatcher = patternMatcher;
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+    }
+
+    @Override
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public int indexOf(String source) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patternMatcher.matches(patterns.get(i), source)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
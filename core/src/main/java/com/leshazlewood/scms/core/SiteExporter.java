@@ -24,18 +24,14 @@ import org.pegdown.PegDownProcessor;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 /**
  * @since 0.1
@@ -45,8 +41,10 @@ public class SiteExporter implements Runnable {
     public static final String ROOT_CONFIG_SECTION_NAME = "scms";
     public static final String DEFAULT_CONFIG_FILE_NAME = "config." + ROOT_CONFIG_SECTION_NAME + ".groovy";
     public static final String DEFAULT_EXCLUDES_ENABLED_NAME = "defaultExcludesEnabled";
+    public static final String COPY_MODE_NAME = "copyMode";
 
-    private static final String METADATA_KV_PAIR_DELIMITER = ":";
+    private static final int COPY_THREADS = 4;
+    private static final int MAX_QUEUED_COPIES = 1024;
 
     private File sourceDir;
     private File destDir;
@@ -55,11 +53,19 @@ public class SiteExporter implements Runnable {
 
     private Map<String, Object> scmsConfig;
     private boolean defaultExcludesEnabled = true;
+    private FileCopier.Mode copyMode = FileCopier.DEFAULT_MODE;
 
     private PatternMatcher patternMatcher;
     private PegDownProcessor pegDownProcessor;
     private VelocityEngine velocityEngine;
 
+    //malformed input is replaced rather than failing the export:
+    private final SourceReader sourceReader =
+            new SourceReader(StandardCharsets.UTF_8, CodingErrorAction.REPLACE, SourceReader.DEFAULT_MAP_THRESHOLD);
+
+    private final FileCopier fileCopier = new FileCopier();
+    private CopyExecutor copyExecutor; //of the current export
+
     public SiteExporter() {
         this.patternMatcher = new AntPathMatcher();
     }
@@ -130,6 +136,7 @@ public class SiteExporter implements Runnable {
         if (scmsConfig.containsKey(DEFAULT_EXCLUDES_ENABLED_NAME)) {
             defaultExcludesEnabled = getValue(scmsConfig, DEFAULT_EXCLUDES_ENABLED_NAME, Boolean.class);
         }
+        copyMode = FileCopier.Mode.fromString(getValue(scmsConfig, COPY_MODE_NAME, String.class));
 
         pegDownProcessor = new PegDownProcessor(Extensions.ALL);
     }
@@ -148,13 +155,20 @@ public class SiteExporter implements Runnable {
     }
 
     public void execute() throws IOException {
-        recurse(sourceDir);
+        //files are copied on their own threads while the rest are rendered:
+        copyExecutor = new CopyExecutor(COPY_THREADS, MAX_QUEUED_COPIES);
+        try {
+            recurse(sourceDir);
+            copyExecutor.await();
+        } finally {
+            copyExecutor.close();
+        }
     }
 
     @Override
     public void run() {
         try {
-            recurse(sourceDir);
+            execute();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -283,22 +297,22 @@ public class SiteExporter implements Runnable {
 
                     if (patternMatcher.matches(pattern, relPath)) {
 
-                        Map<String, Object> model = new LinkedHashMap<String, Object>();
-
                         String relDirPath = getRelativeDirectoryPath(relPath);
                         if ("".equals(relDirPath)) {
                             //still need to reference it with a separator char in the file:
                             relDirPath = ".";
                         }
-                        model.put("root", relDirPath);
+                        Map<String, Object> rootModel = Collections.<String, Object>singletonMap("root", relDirPath);
 
                         Map<String, Object> globalModel = getValue(scmsConfig, "model", Map.class);
-                        append(model, globalModel);
 
                         Map<String, Object> patternCfg = (Map<String, Object>) patternEntry.getValue();
 
                         Map<String, Object> patternCfgModel = getValue(patternCfg, "model", Map.class);
-                        append(model, patternCfgModel);
+
+                        //a layered view rather than a copy of the (possibly large) global model:
+                        Map<String, Object> model =
+                                new LayeredMap<>(Arrays.asList(patternCfgModel, globalModel, rootModel));
 
                         String templatePath = (String) patternCfg.get("template");
                         if (templatePath != null) {
@@ -357,80 +371,14 @@ public class SiteExporter implements Runnable {
 
                 if (copy) {
                     //no pattern matched - just copy the file over:
-                    File destFile = new File(destDir, relPath);
-                    ensureFile(destFile);
-                    copy(f, destFile);
+                    copy(f, new File(destDir, relPath)); //its directory was created before recursing into it
                 }
             }
         }
     }
 
     protected String stripMetadata(String markdown, Map<String, Object> model) {
-        if (model == null) {
-            throw new IllegalArgumentException("model argument cannot be null.");
-        }
-
-        Scanner scanner = new Scanner(markdown);
-        int lineCount = 0;
-        int charCount = 0; //counter for determining where to cut the metadata from non-metadata
-
-        String key = null;
-        List<String> value = new ArrayList<String>();
-
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            lineCount++;
-            charCount += line.length() + 1; //+1 is to account for the newline character that the scanner stripped
-            line = line.trim();
-
-            if (lineCount == 1) {
-                if (line.equals("") || !line.contains(METADATA_KV_PAIR_DELIMITER)) {
-                    //does not conform to Markdown Metadata expectations:
-                    // - cannot be any blank lines above first line of content
-                    // - first line of content must be a ':' delimited key/value pair
-                    return markdown;
-                }
-            } else { //2nd line or more
-                if ("".equals(line)) {
-                    //we found the end of metadata - add last key/value pair and stop looping:
-                    applyValue(model, key, value);
-                    break;
-                }
-            }
-
-            int index = line.indexOf(METADATA_KV_PAIR_DELIMITER);
-            if (index > 0) {
-                applyValue(model, key, value);
-                key = line.substring(0, index).trim();
-                String valueString = line.substring(index + 1).trim();
-                value = new ArrayList<String>();
-                value.add(valueString);
-            } else {
-                value.add(line);
-            }
-        }
-
-        if (charCount < markdown.length()) {
-            return markdown.substring(charCount).trim();
-        }
-
-        return markdown;
-    }
-
-    private void applyValue(Map<String, Object> model, String key, List<String> value) {
-        if (key != null && value != null && !value.isEmpty()) {
-            if (value.size() == 1) {
-                model.put(key, value.get(0));
-            } else {
-                model.put(key, value);
-            }
-        }
-    }
-
-    private void append(Map dest, Map src) {
-        if (dest != null && src != null && !src.isEmpty()) {
-            dest.putAll(src);
-        }
+        return MarkdownMetadata.strip(markdown, model);
     }
 
     private <T> T getValue(Map<String, Object> src, String name, Class<T> type) {
@@ -449,36 +397,17 @@ public class SiteExporter implements Runnable {
         return type.cast(o);
     }
 
-    private void copy(File src, File dest) throws IOException {
-
-        FileChannel source = new FileInputStream(src).getChannel();
-        try {
-            FileChannel destination = new FileOutputStream(dest).getChannel();
-            try {
-                source.transferTo(0, source.size(), destination);
-                // destination.transferFrom(source, 0, source.size());
-            } finally {
-                if (destination != null) {
-                    destination.close();
-                }
-            }
-        } finally {
-            if (source != null) {
-                source.close();
+    private void copy(final File src, final File dest) throws IOException {
+        copyExecutor.submit(new RenderPipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                fileCopier.copy(src, dest, copyMode);
             }
-        }
+        });
     }
 
     private String readFile(File file) throws IOException {
-        FileInputStream stream = new FileInputStream(file);
-        try {
-            FileChannel fc = stream.getChannel();
-            MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-            /* Instead of using default, pass in a decoder. */
-            return Charset.forName("UTF-8").decode(bb).toString();
-        } finally {
-            stream.close();
-        }
+        return sourceReader.readString(file);
     }
 
     private void ensureFile(File f) throws IOException {
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A source file discovered while walking the source tree, along with its path relative to the source directory and
+ * the attributes read when it was discovered.  Keeping these together means a file is only stat'ed once per build
+ * rather than every time its size, timestamp or relative path is needed.  Likewise, its content is only hashed the
+ * first time the {@link #getHash() hash} is needed.
+ *
+ * @since 0.4
+ */
+public class SourceFile {
+
+    private final File file;
+    private final String relativePath;
+    private final long size;
+    private final long lastModified;
+    private volatile String hash;
+
+    public SourceFile(File file, String relativePath, BasicFileAttributes attributes) {
+        this(file, relativePath, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    public SourceFile(File file, String relativePath, long size, long lastModified) {
+        if (file == null) {
+            throw new IllegalArgumentException("file argument cannot be null.");
+        }
+        if (relativePath == null) {
+            throw new IllegalArgumentException("relativePath argument cannot be null.");
+        }
+        this.file = file;
+        this.relativePath = relativePath;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Reads the attributes of the specified file (following symbolic links) and returns the corresponding
+     * {@code SourceFile}.
+     *
+     * @param file         the file to read
+     * @param relativePath the file's path relative to the source directory
+     * @return a new {@code SourceFile} for the specified file
+     * @throws IOException if the file's attributes cannot be read
+     */
+    public static SourceFile read(File file, String relativePath) throws IOException {
+        return new SourceFile(file, relativePath, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 digest of the file's content, which is computed the first time it is requested.
+     *
+     * @return the hex-encoded SHA-256 digest of the file's content.
+     * @throws IOException if the file cannot be read
+     */
+    public String getHash() throws IOException {
+        String h = hash;
+        if (h == null) {
+            h = Digests.sha256(file);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
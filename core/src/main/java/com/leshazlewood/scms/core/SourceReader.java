@@ -0,0 +1,284 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and decodes source files, shared by the {@link DefaultProcessor} and the {@link SiteExporter}.
+ * <p/>
+ * Files up to the {@link #DEFAULT_MAP_THRESHOLD map threshold} are read with a single channel read into a heap buffer
+ * that is reused by the calling thread, which is cheaper than memory-mapping them.  Larger files are memory-mapped
+ * and unmapped as soon as they have been decoded (where the JVM allows it), so long builds don't accumulate mappings
+ * until the garbage collector happens to release them.  Decoders and char buffers are reused per thread as well, so
+ * reading a file allocates little beyond its decoded content.
+ * <p/>
+ * Instances are thread-safe.
+ *
+ * @since 0.4
+ */
+public class SourceReader {
+
+    /**
+     * Files larger than this (in bytes) are memory-mapped by default: 1 MB.
+     */
+    public static final int DEFAULT_MAP_THRESHOLD = 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    //per-thread buffers that grew beyond this (in bytes or chars) are not retained for the next file:
+    private static final int MAX_RETAINED_BUFFER_SIZE = DEFAULT_MAP_THRESHOLD;
+
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final Charset charset;
+    private final CodingErrorAction malformedInputAction;
+    private final int mapThreshold;
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * Creates a reader of UTF-8 files that fails on malformed input.
+     */
+    public SourceReader() {
+        this(StandardCharsets.UTF_8, CodingErrorAction.REPORT, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * Creates a new reader.
+     *
+     * @param charset              the files' charset
+     * @param malformedInputAction what to do with malformed or unmappable input, e.g. {@link CodingErrorAction#REPORT}
+     *                             to fail with a {@link CharacterCodingException} or {@link CodingErrorAction#REPLACE}
+     *                             to replace it
+     * @param mapThreshold         files larger than this (in bytes) are memory-mapped rather than read
+     */
+    public SourceReader(Charset charset, CodingErrorAction malformedInputAction, int mapThreshold) {
+        if (charset == null || malformedInputAction == null) {
+            throw new IllegalArgumentException("charset and malformedInputAction arguments cannot be null.");
+        }
+        this.charset = charset;
+        this.malformedInputAction = malformedInputAction;
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Decodes the specified file to the specified writer.
+     *
+     * @param file the file to read
+     * @param out  the writer to write the file's characters to, not closed by this method
+     * @return the number of characters written
+     * @throws IOException if the file cannot be read or decoded, or the writer cannot be written to
+     */
+    public long read(File file, Writer out) throws IOException {
+        Buffers b = buffers.get();
+        CharsetDecoder decoder = b.decoder();
+        CharBuffer chunk = b.chunk;
+        long count = 0;
+
+        ByteBuffer bytes = open(file, b);
+        try {
+            CoderResult result;
+            do {
+                chunk.clear();
+                result = decoder.decode(bytes, chunk, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                count += write(chunk, out);
+            } while (result.isOverflow());
+
+            do {
+                chunk.clear();
+                result = decoder.flush(chunk);
+                count += write(chunk, out);
+            } while (result.isOverflow());
+        } finally {
+            close(bytes, b);
+        }
+
+        return count;
+    }
+
+    /**
+     * Decodes the specified file to a string.
+     *
+     * @param file the file to read
+     * @return the file's content.
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public String readString(File file) throws IOException {
+        Buffers b = buffers.get();
+        CharsetDecoder decoder = b.decoder();
+
+        ByteBuffer bytes = open(file, b);
+        try {
+            CharBuffer chars = b.chars((int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            result = decoder.flush(chars);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            chars.flip();
+            return chars.toString();
+        } finally {
+            close(bytes, b);
+        }
+    }
+
+    private static long write(CharBuffer chunk, Writer out) throws IOException {
+        chunk.flip();
+        int n = chunk.remaining();
+        if (n > 0) {
+            out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), n);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the file's bytes, either read into the thread's heap buffer or memory-mapped.
+     */
+    private ByteBuffer open(File file, Buffers b) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > mapThreshold) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer bytes = b.bytes((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                //a file shorter than its reported size (e.g. truncated meanwhile) simply ends early
+            }
+            bytes.flip();
+            return bytes;
+        }
+    }
+
+    private static void close(ByteBuffer bytes, Buffers b) {
+        if (bytes instanceof MappedByteBuffer) {
+            UNMAPPER.unmap(bytes);
+        } else {
+            b.release(bytes);
+        }
+    }
+
+    /**
+     * The calling thread's decoder and buffers.
+     */
+    private class Buffers {
+
+        private final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(malformedInputAction)
+                .onUnmappableCharacter(malformedInputAction);
+        private final CharBuffer chunk = CharBuffer.allocate(CHUNK_SIZE);
+        private ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        private CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+        CharsetDecoder decoder() {
+            return decoder.reset();
+        }
+
+        ByteBuffer bytes(int size) {
+            ByteBuffer buffer = bytes.capacity() >= size ? bytes : ByteBuffer.allocate(size);
+            buffer.clear().limit(size);
+            return buffer;
+        }
+
+        void release(ByteBuffer buffer) {
+            if (buffer != bytes && buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+                bytes = buffer;
+            }
+        }
+
+        CharBuffer chars(int size) {
+            CharBuffer buffer = chars.capacity() >= size ? chars : CharBuffer.allocate(size);
+            if (buffer != chars && size <= MAX_RETAINED_BUFFER_SIZE) {
+                chars = buffer;
+            }
+            buffer.clear();
+            return buffer;
+        }
+    }
+
+    /**
+     * Releases memory-mapped buffers immediately where the JVM allows it, and otherwise leaves them to the garbage
+     * collector.  A buffer must not be used after it has been unmapped, so only buffers that were never handed out
+     * are unmapped.
+     */
+    private static abstract class Unmapper {
+
+        abstract void unmap(ByteBuffer buffer);
+
+        static Unmapper create() {
+            try {
+                //Java 9 and later:
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                final Object unsafe = theUnsafe.get(null);
+                return new Unmapper() {
+                    @Override
+                    void unmap(ByteBuffer buffer) {
+                        try {
+                            invokeCleaner.invoke(unsafe, buffer);
+                        } catch (Exception ignored) {
+                            //left to the garbage collector
+                        }
+                    }
+                };
+            } catch (Exception e) {
+                //Java 8: DirectByteBuffer.cleaner().clean()
+                return new Unmapper() {
+                    @Override
+                    void unmap(ByteBuffer buffer) {
+                        try {
+                            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                            cleanerMethod.setAccessible(true);
+                            Object cleaner = cleanerMethod.invoke(buffer);
+                            if (cleaner != null) {
+                                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                            }
+                        } catch (Exception ignored) {
+                            //left to the garbage collector
+                        }
+                    }
+                };
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches a source directory tree for changes and reports them to a {@link Listener} in batches.
+ * <p/>
+ * Editors and version control tools usually touch several files (or the same file several times) for a single
+ * logical change.  Events are therefore debounced: once a change is seen, the watcher keeps collecting events until
+ * the tree has been quiet for the {@link #setQuietPeriodMillis(long) quiet period}, and then reports every distinct
+ * changed file at once.
+ * <p/>
+ * If the underlying {@link WatchService} loses events, the source directory itself is reported as changed, which
+ * listeners should treat as 'anything may have changed'.
+ *
+ * @since 0.4
+ */
+public class SourceWatcher implements Closeable {
+
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 200;
+
+    /**
+     * Receives batches of changed files.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a batch of changes has settled.  Changed files may have been created, modified or deleted;
+         * a changed directory indicates that any file within it may have changed.
+         *
+         * @param changed the distinct changed files and directories, in the order they were first seen.
+         */
+        void onChange(Set<File> changed);
+    }
+
+    private final Path sourceDir;
+    private final List<Path> ignoredDirs = new ArrayList<>();
+    private final WatchService watchService;
+    private long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    /**
+     * Creates a new watcher for the specified source directory.
+     *
+     * @param sourceDir   the root of the tree to watch
+     * @param ignoredDirs directories (usually the destination and state directories) whose subtrees are never
+     *                    watched, {@code null} elements are ignored.
+     * @throws IOException if the tree cannot be registered with the platform watch service
+     */
+    public SourceWatcher(File sourceDir, File... ignoredDirs) throws IOException {
+        this.sourceDir = sourceDir.toPath().toAbsolutePath().normalize();
+        if (ignoredDirs != null) {
+            for (File ignoredDir : ignoredDirs) {
+                if (ignoredDir != null) {
+                    this.ignoredDirs.add(ignoredDir.toPath().toAbsolutePath().normalize());
+                }
+            }
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        register(this.sourceDir);
+    }
+
+    public void setQuietPeriodMillis(long quietPeriodMillis) {
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    /**
+     * Blocks the calling thread, reporting each settled batch of changes to the specified listener, until the thread
+     * is interrupted or this watcher is closed.
+     *
+     * @param listener the listener to notify
+     * @throws IOException if a newly created directory cannot be registered
+     */
+    public void watch(Listener listener) throws IOException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Set<File> changed = new LinkedHashSet<>();
+                collect(key, changed);
+
+                //coalesce everything that happens until the tree has been quiet for a while:
+                while ((key = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+
+                if (!changed.isEmpty()) {
+                    listener.onChange(changed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            //closed from another thread - stop watching
+        }
+    }
+
+    private void collect(WatchKey key, Set<File> changed) throws IOException {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed.add(sourceDir.toFile());
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (isIgnored(path)) {
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                register(path);
+            }
+            changed.add(path.toFile());
+        }
+        key.reset();
+    }
+
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (isIgnored(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isIgnored(Path path) {
+        for (Path ignoredDir : ignoredDirs) {
+            if (path.startsWith(ignoredDir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.ResourceCache;
+import org.apache.velocity.runtime.resource.loader.ResourceLoader;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Velocity {@link ResourceCache} that keeps every parsed template (and {@code #include}d resource) for the life of
+ * the engine, but never returns one whose source has been modified since it was loaded.
+ * <p/>
+ * Velocity's default cache only re-checks a resource once every {@code modificationCheckInterval} seconds, so it
+ * either parses the same template again for every page (caching disabled) or may render a stale template for up to
+ * that interval after it is edited.  This cache checks the source's modification time on every lookup instead: a
+ * template is parsed once and reused for every page of a build, while an edited template (e.g. in watch mode) is
+ * picked up by the very next page.  A stale entry is reported as absent, which makes Velocity load, parse and re-cache
+ * the resource.
+ * <p/>
+ * Every resource Velocity uses passes through this cache, so it also reports them to {@link TemplateDependencies}.
+ *
+ * @see FileTemplateLoader
+ * @since 0.4
+ */
+public class TemplateCache implements ResourceCache {
+
+    private final Map<Object, Resource> resources = new ConcurrentHashMap<>();
+
+    @Override
+    public void initialize(RuntimeServices rs) {
+        //nothing to configure
+    }
+
+    @Override
+    public Resource get(Object resourceKey) {
+        Resource resource = resources.get(resourceKey);
+        if (resource == null) {
+            return null;
+        }
+        ResourceLoader loader = resource.getResourceLoader();
+        if (loader != null && loader.isSourceModified(resource)) {
+            resources.remove(resourceKey, resource);
+            return null;
+        }
+        TemplateDependencies.add(resource.getName());
+        return resource;
+    }
+
+    @Override
+    public Resource put(Object resourceKey, Resource resource) {
+        TemplateDependencies.add(resource.getName()); //loaded (again) because it wasn't cached
+        return resources.put(resourceKey, resource);
+    }
+
+    @Override
+    public Resource remove(Object resourceKey) {
+        return resources.remove(resourceKey);
+    }
+
+    @Override
+    public Iterator enumerateKeys() {
+        return resources.keySet().iterator();
+    }
+}
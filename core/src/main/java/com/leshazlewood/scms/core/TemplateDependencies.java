@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Records the names of the Velocity resources - templates, {@code #parse} and {@code #include} targets - used on the
+ * calling thread between {@link #start()} and {@link #end()}.  Every resource Velocity uses is looked up in the
+ * {@link TemplateCache} (cached or not), which reports it here, so the recorded names are the complete, transitive
+ * set of templates a render depended on.
+ *
+ * @since 0.4
+ */
+public final class TemplateDependencies {
+
+    private static final ThreadLocal<TemplateDependencies> CURRENT = new ThreadLocal<>();
+
+    private final Set<String> names = new LinkedHashSet<>();
+
+    private TemplateDependencies() {
+    }
+
+    /**
+     * Starts recording the resources used on the calling thread.
+     *
+     * @return the started recording, to be {@link #end() ended} when rendering completes.
+     */
+    public static TemplateDependencies start() {
+        TemplateDependencies dependencies = new TemplateDependencies();
+        CURRENT.set(dependencies);
+        return dependencies;
+    }
+
+    /**
+     * Records that the named resource is used, if a recording is in progress on the calling thread.
+     *
+     * @param name the name of the resource
+     */
+    static void add(String name) {
+        TemplateDependencies dependencies = CURRENT.get();
+        if (dependencies != null && name != null) {
+            dependencies.names.add(name);
+        }
+    }
+
+    /**
+     * Returns the names of the resources used so far, in order of first use.
+     *
+     * @return the names of the resources used so far, in order of first use.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Ends the recording.  Resources used on the calling thread are no longer recorded afterwards.
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 Les Hazlewood
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leshazlewood.scms.core;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the time spent in Velocity templates, {@code #parse} and {@code #include} targets and velocimacros over
+ * an entire build, and writes it as a flat profile, hottest first.
+ * <p/>
+ * A profiler is installed with {@link DefaultVelocityEngineFactory#setProfiler(VelocityProfiler)} and
+ * {@link VelocityRenderer#VelocityRenderer(org.apache.velocity.app.VelocityEngine, VelocityProfiler)}.  Every item's
+ * <em>total</em> time includes the items it invokes, its <em>self</em> time does not, so the self times add up to the
+ * total time spent in Velocity.  The profile is sorted by self time.  A recursive macro or {@code #parse} counts its
+ * nested invocations in its total time more than once.
+ *
+ * @since 0.4
+ */
+public class VelocityProfiler {
+
+    /**
+     * The kinds of profiled items.
+     */
+    public enum Kind {
+        /** A template rendered by the renderer: a page or a page layout. */
+        TEMPLATE,
+        /** The target of a {@code #parse} directive. */
+        PARSE,
+        /** The target(s) of an {@code #include} directive. */
+        INCLUDE,
+        /** A velocimacro. */
+        MACRO
+    }
+
+    private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<>();
+
+    void record(Kind kind, String name, long totalNanos, long selfNanos) {
+        String key = kind.name() + ':' + name;
+        Item item = items.get(key);
+        if (item == null) {
+            Item existing = items.putIfAbsent(key, item = new Item(kind, name));
+            item = existing != null ? existing : item;
+        }
+        item.count.increment();
+        item.totalNanos.add(totalNanos);
+        item.selfNanos.add(selfNanos);
+    }
+
+    /**
+     * Discards all recorded times.
+     */
+    public void reset() {
+        items.clear();
+    }
+
+    /**
+     * Writes the flat profile to the specified file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Writes the flat profile, one item per line sorted by self time (hottest first), to the specified writer.
+     *
+     * @param writer the writer to write to
+     */
+    public void write(Writer writer) {
+        List<Item> sorted = new ArrayList<>(items.values());
+        Collections.sort(sorted, new Comparator<Item>() {
+            @Override
+            public int compare(Item a, Item b) {
+                return Long.compare(b.selfNanos.sum(), a.selfNanos.sum());
+            }
+        });
+
+        long selfNanos = 0;
+        for (Item item : sorted) {
+            selfNanos += item.selfNanos.sum();
+        }
+
+        PrintWriter out = new PrintWriter(writer);
+        out.printf("%7s %12s %12s %10s  %-8s  %s%n", "self %", "self ms", "total ms", "calls", "kind", "name");
+        for (Item item : sorted) {
+            long self = item.selfNanos.sum();
+            out.printf("%7.2f %12.1f %12.1f %10d  %-8s  %s%n", selfNanos > 0 ? self * 100.0 / selfNanos : 0.0,
+                    self / 1e6, item.totalNanos.sum() / 1e6, item.count.sum(), item.kind.name().toLowerCase(),
+                    item.name);
+        }
+        out.flush();
+    }
+
+    private static class Item {
+
+        private final Kind kind;
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder selfNanos = new LongAdder();
+
+        private Item(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    /**
+     * The context of a single profiled render.  Velocity pushes and pops the name of every template it renders
+     * (including {@code #parse} targets) and of every velocimacro it invokes on the context, which this context times.
+     */
+    static class ProfilingContext extends VelocityContext {
+
+        private final VelocityProfiler profiler;
+        private final List<Frame> frames = new ArrayList<>();
+        private int templateDepth;
+
+        ProfilingContext(VelocityProfiler profiler, Map<String, ?> model, Context innerContext) {
+            super(model, innerContext);
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void pushCurrentTemplateName(String s) {
+            super.pushCurrentTemplateName(s);
+            enter(templateDepth++ == 0 ? Kind.TEMPLATE : Kind.PARSE, s);
+        }
+
+        @Override
+        public void popCurrentTemplateName() {
+            super.popCurrentTemplateName();
+            templateDepth--;
+            exit();
+        }
+
+        @Override
+        public void pushCurrentMacroName(String s) {
+            super.pushCurrentMacroName(s);
+            enter(Kind.MACRO, s);
+        }
+
+        @Override
+        public void popCurrentMacroName() {
+            super.popCurrentMacroName();
+            exit();
+        }
+
+        void enter(Kind kind, String name) {
+            frames.add(new Frame(kind, name));
+        }
+
+        void exit() {
+            if (frames.isEmpty()) {
+                return;
+            }
+            Frame frame = frames.remove(frames.size() - 1);
+            long total = System.nanoTime() - frame.start;
+            if (!frames.isEmpty()) {
+                frames.get(frames.size() - 1).childNanos += total;
+            }
+            profiler.record(frame.kind, frame.name, total, total - frame.childNanos);
+        }
+    }
+
+    private static class Frame {
+
+        private final Kind kind;
+        private final String name;
+        private final long start = System.nanoTime();
+        private long childNanos;
+
+        private Frame(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+}
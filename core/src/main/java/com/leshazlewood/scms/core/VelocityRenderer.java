@@ -1,20 +1,38 @@
 package com.leshazlewood.scms.core;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+@ThreadSafe
 public class VelocityRenderer implements FileRenderer {
 
     private final VelocityEngine velocityEngine;
+    private final VelocityProfiler profiler;
 
     public VelocityRenderer(VelocityEngine velocityEngine) {
+        this(velocityEngine, null);
+    }
+
+    /**
+     * Creates a renderer that records the time spent in templates, {@code #parse}/{@code #include} targets and
+     * velocimacros with the specified profiler.
+     *
+     * @param velocityEngine the engine, created by a factory {@link DefaultVelocityEngineFactory#setProfiler
+     *                       prepared} for the profiler
+     * @param profiler       the profiler, may be {@code null} to not profile
+     * @since 0.4
+     */
+    public VelocityRenderer(VelocityEngine velocityEngine, VelocityProfiler profiler) {
         assert velocityEngine != null : "VelocityEngine argument cannot be null.";
         this.velocityEngine = velocityEngine;
+        this.profiler = profiler;
     }
 
     @Override
@@ -40,8 +58,8 @@ public class VelocityRenderer implements FileRenderer {
             model = Collections.emptyMap();
         }
 
-        VelocityContext ctx = new VelocityContext(model);
-        Writer outputWriter = request.getWriter();
+        VelocityContext ctx = createContext(model);
+        Writer outputWriter = RenderBudget.wrap(request.getWriter());
         String sourceName = request.getResource().getName();
         Reader sourceReader = request.getResource().getReader();
 
@@ -51,4 +69,50 @@ public class VelocityRenderer implements FileRenderer {
             throw new IllegalStateException("Unable to render resource " + sourceName);
         }
     }
+
+    /**
+     * Renders the named template, as loaded by the engine's resource loaders, to the specified writer.  Unlike
+     * {@link #render(RenderRequest)}, which must parse the request's resource every time, the template is parsed
+     * once and then reused from the engine's resource cache for every subsequent call (until it is modified).  This
+     * is intended for templates, like page layouts, that are rendered many times with different models.
+     *
+     * @param templateName the name of the template to render
+     * @param model        the model available to the template, may be {@code null}
+     * @param writer       the writer that receives the rendered output
+     */
+    public void render(String templateName, Map<String, ?> model, Writer writer) {
+        if (model == null) {
+            model = Collections.emptyMap();
+        }
+        Template template = velocityEngine.getTemplate(templateName, "UTF-8");
+        template.merge(createContext(model), RenderBudget.wrap(writer));
+    }
+
+    /**
+     * Returns a context backed by the specified model.  A {@link LayeredMap} model becomes a chain of contexts, one
+     * per layer, so templates read the shared layers directly and {@code #set} only ever writes to the model's own
+     * (top) layer.
+     */
+    @SuppressWarnings("unchecked")
+    private VelocityContext createContext(Map<String, ?> model) {
+        if (!(model instanceof LayeredMap)) {
+            return createContext(model, null);
+        }
+        List<? extends Map<String, ?>> layers = ((LayeredMap<String, Object>) model).getLayers();
+        VelocityContext ctx = null;
+        for (int i = layers.size() - 1; i > 0; i--) {
+            ctx = new VelocityContext(layers.get(i), ctx);
+        }
+        return createContext(layers.get(0), ctx);
+    }
+
+    /**
+     * Returns the outermost context, which Velocity keeps its template and macro call stacks on.
+     */
+    private VelocityContext createContext(Map<String, ?> model, VelocityContext innerContext) {
+        if (profiler != null) {
+            return new VelocityProfiler.ProfilingContext(profiler, model, innerContext);
+        }
+        return new VelocityContext(model, innerContext);
+    }
 }
@@ -1,6 +1,8 @@
 package com.leshazlewood.scms.core;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
@@ -16,6 +18,48 @@ public class Version {
         return VERSION;
     }
 
+    /**
+     * Returns a string identifying the version of the code the specified class was loaded from.  For a class loaded
+     * from a jar, this is the jar's {@code Implementation-Version} (if any), file name and size, so it changes whenever
+     * the jar is replaced by a different build, even one with the same version.  For a class loaded from a directory
+     * (e.g. during development), it is the class file's last modification time.
+     *
+     * @param clazz the class whose code to identify
+     * @return a string identifying the version of the code the specified class was loaded from.
+     * @since 0.4
+     */
+    public static String of(Class<?> clazz) {
+        String name = clazz.getName();
+        URL url = clazz.getResource(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        if (url == null) {
+            return "unknown";
+        }
+        if ("jar".equals(url.getProtocol())) {
+            String path = url.getPath(); //file:/path/to/lib.jar!/com/example/Class.class
+            path = path.substring(0, path.lastIndexOf('!'));
+            StringBuilder sb = new StringBuilder();
+            Package pkg = clazz.getPackage();
+            if (pkg != null && pkg.getImplementationVersion() != null) {
+                sb.append(pkg.getImplementationVersion()).append(' ');
+            }
+            sb.append(path.substring(path.lastIndexOf('/') + 1));
+            try {
+                sb.append(' ').append(new File(new URL(path).toURI()).length());
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                //not a local file - the name has to do
+            }
+            return sb.toString();
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return String.valueOf(new File(url.toURI()).lastModified());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return url.toString();
+            }
+        }
+        return url.toString();
+    }
+
     private static String lookupVersion() {
         Class clazz = Version.class;
         String className = clazz.getSimpleName() + ".class";
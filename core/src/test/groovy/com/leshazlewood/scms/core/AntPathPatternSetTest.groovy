@@ -0,0 +1,68 @@
+package com.leshazlewood.scms.core
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class AntPathPatternSetTest {
+
+    static final List<String> PATTERNS = [
+            'templates/**', '**/*.md', '**/*.md.vtl', 'docs/special.md', 'docs/**/index.*', '*.html', '/abs/**',
+            'a/**/b/**/c', '**/node_modules/**', 'raw/**', 'x?z/*', '**', 'foo/', '**/*.m*d*', 'a/*/*/d',
+            '**/**/deep', 'src/*/main/**/*.java', 'trim /me'
+    ]
+
+    static final List<String> PATHS = [
+            'templates', 'templates/default.vtl', 'templates/a/b.vtl', 'index.md', 'docs/p1.md', 'docs/v.md.vtl',
+            'docs/special.md', 'docs/index.html', 'docs/a/b/index.md', 'page.html', 'docs/page.html', '/abs',
+            '/abs/x/y', 'abs/x', 'a/b/c', 'a/x/b/y/c', 'a/b/b/c/c', 'a/c', 'lib/node_modules/x/y.js', 'node_modules',
+            'raw/r.md', 'xyz/q', 'xz/q', 'foo', 'foo/', 'mad.mod', 'a/b/c/d', 'a/bb/cc/d', 'deep', 'x/y/deep',
+            'src/a/main/java/Foo.java', 'src/a/main/Foo.java', 'src/main/Foo.java', 'trim/me', ' trim/me',
+            'a//b/c', '//abs/x', 'docs/', 'ünï/cödé.md', ''
+    ]
+
+    @Test
+    void testMatchesSameAsAntPathMatcher() {
+        AntPathMatcher matcher = new AntPathMatcher()
+
+        //every contiguous sub-list exercises a different first-match ordering:
+        for (int from = 0; from < PATTERNS.size(); from++) {
+            for (int to = from + 1; to <= PATTERNS.size(); to++) {
+                List<String> patterns = PATTERNS.subList(from, to)
+                PatternSet set = matcher.compile(patterns)
+                assertTrue set instanceof AntPathPatternSet
+                for (String path : PATHS) {
+                    assertEquals("$patterns vs '$path'", expectedIndex(matcher, patterns, path), set.indexOf(path))
+                }
+            }
+        }
+    }
+
+    @Test
+    void testManyWildcardsRemainLinear() {
+        //catastrophic for a backtracking matcher: many '*' in one segment and many '**' segments that can't match
+        String pattern = ('*a' * 30) + 'b/' + ('**/x/' * 20) + 'end'
+        String path = ('a' * 2000) + '/' + ('x/' * 500) + 'nope'
+        PatternSet set = new AntPathPatternSet([pattern])
+        long start = System.nanoTime()
+        assertEquals(-1, set.indexOf(path))
+        assertTrue 'took too long', System.nanoTime() - start < 5_000_000_000L
+    }
+
+    @Test
+    void testEmptyPatternSet() {
+        assertEquals(-1, new AntPathPatternSet([]).indexOf('foo/bar'))
+    }
+
+    private static int expectedIndex(AntPathMatcher matcher, List<String> patterns, String path) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (matcher.match(patterns[i], path)) {
+                return i
+            }
+        }
+        return -1
+    }
+}
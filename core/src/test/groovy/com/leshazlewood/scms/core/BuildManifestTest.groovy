@@ -0,0 +1,49 @@
+package com.leshazlewood.scms.core
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class BuildManifestTest {
+
+    private static BuildManifest.Entry entry(String path, List<String> templates) {
+        BuildManifest.Entry entry = new BuildManifest.Entry(path)
+        entry.templates = templates.collectEntries { [(it): 'hash'] }
+        return entry
+    }
+
+    @Test
+    void testDependentsFollowEntries() {
+        BuildManifest manifest = new BuildManifest()
+        manifest.put(entry('a.md', ['default.vtl', 'nav.vtl']))
+        manifest.put(entry('b.md', ['default.vtl']))
+
+        assertEquals(['a.md', 'b.md'] as Set, manifest.getDependents('default.vtl'))
+        assertEquals(['a.md'] as Set, manifest.getDependents('nav.vtl'))
+        assertTrue manifest.getDependents('other.vtl').isEmpty()
+
+        //re-rendered without the partial:
+        manifest.put(entry('a.md', ['default.vtl']))
+
+        assertTrue manifest.getDependents('nav.vtl').isEmpty()
+        assertEquals(['default.vtl'] as Set, manifest.templates)
+    }
+
+    @Test
+    void testDependentsSurviveSaveAndLoad() {
+        File file = File.createTempFile('manifest', '.json')
+        try {
+            BuildManifest manifest = new BuildManifest()
+            manifest.put(entry('a.md', ['default.vtl', 'nav.vtl']))
+            manifest.save(file)
+
+            BuildManifest loaded = BuildManifest.load(file)
+            assertEquals(['a.md'] as Set, loaded.getDependents('nav.vtl'))
+        } finally {
+            file.delete()
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests that a build rendering files concurrently produces exactly the same output as a serial build.
+ *
+ * @since 0.4
+ */
+class ConcurrentBuildTest {
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('templates/default.vtl', '<html><title>$title</title><body>$content.trim()</body></html>')
+        site.config("""
+scms {
+    excludes = ['templates/**']
+    model { siteName = 'Test' }
+    patterns {
+        '**/*.md' { template = '${site.template('templates/default.vtl')}' }
+    }
+}
+""")
+        Random random = new Random(42)
+        for (int i = 0; i < 60; i++) {
+            String dir = "section${i % 5}/"
+            site.source("${dir}page${i}.md", "title: Page $i\n\n# Page $i\n\n" + ('Some *text*. ' * random.nextInt(2000)))
+            site.source("${dir}list${i}.html.vtl",
+                    "#foreach(\$n in [1..${random.nextInt(500)}])<li>\$n \$siteName</li>#end")
+            byte[] bytes = new byte[random.nextInt(100000)]
+            random.nextBytes(bytes)
+            new File(site.sourceDir, "${dir}asset${i}.bin").bytes = bytes
+        }
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    private static Map<String, byte[]> contents(File dir) {
+        Map<String, byte[]> contents = new TreeMap<>()
+        dir.eachFileRecurse { File f ->
+            if (f.isFile()) {
+                contents[dir.toPath().relativize(f.toPath()).toString()] = f.bytes
+            }
+        }
+        return contents
+    }
+
+    @Test
+    void testConcurrentBuildOutputIsIdenticalToSerialBuild() {
+        File serialDir = new File(site.root, 'serial')
+        File concurrentDir = new File(site.root, 'concurrent')
+        site.build(destDir: serialDir, stateDir: new File(site.root, 'serial-state'))
+        site.build(destDir: concurrentDir, stateDir: new File(site.root, 'concurrent-state'), jobs: 4)
+
+        Map<String, byte[]> serial = contents(serialDir)
+        Map<String, byte[]> concurrent = contents(concurrentDir)
+
+        assertEquals 180, serial.size()
+        assertEquals serial.keySet(), concurrent.keySet()
+        for (String path : serial.keySet()) {
+            assertArrayEquals path, serial[path], concurrent[path]
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.file.Files
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class FileCopierTest {
+
+    File dir
+    File src
+    File dest
+    FileCopier copier
+
+    @Before
+    void setUp() {
+        dir = File.createTempFile('scms-file-copier', '')
+        dir.delete()
+        dir.mkdirs()
+        src = new File(dir, 'src.png')
+        src.bytes = [1, 2, 3, 4] as byte[]
+        src.setLastModified(1000000000000L)
+        dest = new File(dir, 'dest.png')
+        copier = new FileCopier()
+    }
+
+    @After
+    void tearDown() {
+        dir.deleteDir()
+    }
+
+    private static void edit(File f, List<Integer> bytes) {
+        f.withOutputStream { it.write(bytes as byte[]) } //in place, not replaced
+        f.setLastModified(f.lastModified() + 5000)
+    }
+
+    @Test
+    void testModeFromString() {
+        assertEquals FileCopier.Mode.QUICK, FileCopier.Mode.fromString(null)
+        assertEquals FileCopier.Mode.REFLINK, FileCopier.Mode.fromString(' Reflink ')
+        try {
+            FileCopier.Mode.fromString('symlink')
+            fail 'unknown modes should be rejected'
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    void testCopyAlwaysCopies() {
+        assertTrue copier.copy(src, dest, FileCopier.Mode.COPY)
+        assertTrue copier.copy(src, dest, FileCopier.Mode.COPY)
+        assertArrayEquals src.bytes, dest.bytes
+    }
+
+    @Test
+    void testQuickSkipsUpToDateCopies() {
+        assertTrue copier.copy(src, dest, FileCopier.Mode.QUICK)
+        assertEquals src.lastModified(), dest.lastModified()
+        assertFalse Files.isSameFile(src.toPath(), dest.toPath())
+
+        assertFalse copier.copy(src, dest, FileCopier.Mode.QUICK)
+
+        edit(src, [5, 6, 7, 8])
+        assertTrue copier.copy(src, dest, FileCopier.Mode.QUICK)
+        assertArrayEquals([5, 6, 7, 8] as byte[], dest.bytes)
+    }
+
+    @Test
+    void testHardLink() {
+        assertTrue copier.copy(src, dest, FileCopier.Mode.HARDLINK)
+        assertTrue Files.isSameFile(src.toPath(), dest.toPath())
+
+        assertFalse copier.copy(src, dest, FileCopier.Mode.HARDLINK)
+    }
+
+    @Test
+    void testCopyOverHardLinkDoesNotWriteThrough() {
+        copier.copy(src, dest, FileCopier.Mode.HARDLINK)
+        File other = new File(dir, 'other.png')
+        other.bytes = [9, 9] as byte[]
+
+        assertTrue copier.copy(other, dest, FileCopier.Mode.COPY)
+
+        assertArrayEquals([9, 9] as byte[], dest.bytes)
+        assertArrayEquals([1, 2, 3, 4] as byte[], src.bytes)
+    }
+
+    @Test
+    void testReflinkFallsBackToCopy() {
+        //most test file systems can't clone files, in which case the bytes are copied instead:
+        assertTrue copier.copy(src, dest, FileCopier.Mode.REFLINK)
+        assertArrayEquals src.bytes, dest.bytes
+        assertEquals src.lastModified(), dest.lastModified()
+        assertFalse Files.isSameFile(src.toPath(), dest.toPath())
+
+        assertFalse copier.copy(src, dest, FileCopier.Mode.REFLINK)
+
+        //and keeps doing so after the first failure:
+        edit(src, [5, 6, 7, 8])
+        assertTrue copier.copy(src, dest, FileCopier.Mode.REFLINK)
+        assertArrayEquals([5, 6, 7, 8] as byte[], dest.bytes)
+    }
+}
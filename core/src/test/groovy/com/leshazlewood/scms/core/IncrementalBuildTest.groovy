@@ -0,0 +1,128 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests which source files an incremental build skips.  A skipped file's output is not written again, so each test
+ * tampers with an output after the first build and checks whether the next build replaced it.
+ *
+ * @since 0.4
+ */
+class IncrementalBuildTest {
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('templates/default.vtl', '<title>$title</title>$content')
+        site.source('index.md', 'title: Home\n\n# Hello\n')
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    private void configure(String model) {
+        site.config("""
+scms {
+    excludes = ['templates/**']
+    model { $model }
+    patterns {
+        '**/*.md' { template = '${site.template('templates/default.vtl')}' }
+    }
+}
+""")
+    }
+
+    private boolean rebuilt() {
+        site.output('index.html').text = 'tampered'
+        site.build(incremental: true)
+        return site.read('index.html') != 'tampered'
+    }
+
+    @Test
+    void testUnchangedFileIsSkipped() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+        assertTrue site.read('index.html').contains('<title>Home</title>')
+
+        assertFalse rebuilt()
+    }
+
+    @Test
+    void testTouchedButUnchangedFileIsSkipped() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+
+        new File(site.sourceDir, 'index.md').setLastModified(System.currentTimeMillis() - 60000)
+        assertFalse rebuilt()
+    }
+
+    @Test
+    void testChangedFileIsRendered() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+
+        site.source('index.md', 'title: Changed\n\n# Hello\n')
+        assertTrue rebuilt()
+        assertTrue site.read('index.html').contains('<title>Changed</title>')
+    }
+
+    @Test
+    void testChangedVelocimacroLibraryRendersEverything() {
+        File library = site.source('templates/macros.vm', '#macro(greet)Hello#end')
+        site.source('templates/default.vtl', '#greet() $content')
+        configure("siteName = 'Test'")
+        site.build(incremental: true, velocimacroLibrary: library)
+        assertTrue site.read('index.html').startsWith('Hello')
+
+        site.source('templates/macros.vm', '#macro(greet)Howdy#end')
+        site.build(incremental: true, velocimacroLibrary: library)
+        assertTrue site.read('index.html').startsWith('Howdy')
+    }
+
+    @Test
+    void testChangedTemplateIsRendered() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+
+        site.source('templates/default.vtl', '<h1>$title</h1>$content')
+        assertTrue rebuilt()
+        assertTrue site.read('index.html').contains('<h1>Home</h1>')
+    }
+
+    @Test
+    void testChangedConfigIsRendered() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+
+        configure("siteName = 'Changed'")
+        assertTrue rebuilt()
+    }
+
+    @Test
+    void testUnfingerprintableConfigIsAlwaysRendered() {
+        //a closure's string representation differs between runs, so it can't tell whether the config changed:
+        configure("siteName = 'Test'; helper = { -> 'help' }")
+        site.build(incremental: true)
+
+        assertTrue rebuilt()
+        assertTrue rebuilt()
+    }
+
+    @Test
+    void testNonIncrementalBuildRendersEverything() {
+        configure("siteName = 'Test'")
+        site.build(incremental: true)
+
+        site.output('index.html').text = 'tampered'
+        site.build()
+        assertTrue site.read('index.html').contains('<title>Home</title>')
+    }
+}
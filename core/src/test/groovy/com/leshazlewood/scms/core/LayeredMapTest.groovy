@@ -0,0 +1,40 @@
+package com.leshazlewood.scms.core
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class LayeredMapTest {
+
+    @Test
+    void testLookupPrecedenceAndCopyOnWrite() {
+        Map global = [a: 'global', b: 'global', nil: 'global']
+        Map pattern = [b: 'pattern', nil: null]
+
+        LayeredMap<String, Object> map = new LayeredMap<String, Object>([pattern, global])
+
+        assertEquals 'global', map.a
+        assertEquals 'pattern', map.b
+        assertNull map.nil
+        assertTrue map.containsKey('nil')
+        assertFalse map.containsKey('c')
+
+        map.a = 'file'
+        map.c = 'file'
+
+        assertEquals 'file', map.a
+        assertEquals 'file', map.c
+        assertEquals([a: 'global', b: 'global', nil: 'global'], global)
+        assertEquals([b: 'pattern', nil: null], pattern)
+
+        assertEquals([a: 'file', b: 'pattern', nil: null, c: 'file'], new LinkedHashMap(map))
+    }
+
+    @Test(expected = UnsupportedOperationException)
+    void testRemoveUnderlyingKey() {
+        new LayeredMap<String, Object>([[a: 'global']]).remove('a')
+    }
+}
@@ -0,0 +1,184 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class OutputManifestTest {
+
+    File root
+    File dir
+
+    @Before
+    void setUp() {
+        root = File.createTempFile('scms-output-manifest', '')
+        root.delete()
+        dir = new File(root, 'dest')
+        dir.mkdirs()
+    }
+
+    @After
+    void tearDown() {
+        root.deleteDir()
+    }
+
+    private File file(String path) {
+        return new File(dir, path)
+    }
+
+    /**
+     * Returns a manifest of a first build that wrote the specified files.
+     */
+    private OutputManifest build(String... paths) {
+        OutputManifest manifest = new OutputManifest().next(true)
+        for (String path : paths) {
+            put(manifest, path)
+        }
+        return manifest
+    }
+
+    private void put(OutputManifest manifest, String path) {
+        File f = file(path)
+        f.parentFile.mkdirs()
+        f.text = path
+        manifest.put(path, new OutputManifest.Output(Digests.sha256(path), f.length(), f.lastModified()),
+                OutputManifest.Change.ADDED)
+    }
+
+    @Test
+    void testCompleteBuildPrunesOutputsNotProduced() {
+        OutputManifest current = build('a.html', 'b.html').next(true)
+        put(current, 'a.html')
+
+        assertEquals 1, current.prune(dir)
+
+        assertTrue file('a.html').exists()
+        assertFalse file('b.html').exists()
+        assertEquals(['b.html'], current.getChanges(OutputManifest.Change.REMOVED).keySet() as List)
+        assertEquals 1, current.size()
+    }
+
+    @Test
+    void testPartialUpdateRetainsOutputsNotWritten() {
+        OutputManifest current = build('a.html', 'b.html').next(false)
+        put(current, 'c.html')
+
+        assertEquals 0, current.prune(dir)
+
+        assertTrue file('a.html').exists()
+        assertTrue file('b.html').exists()
+        assertTrue current.getChanges(OutputManifest.Change.REMOVED).isEmpty()
+        assertEquals 3, current.size()
+    }
+
+    @Test
+    void testRetainAllAfterTimeout() {
+        OutputManifest current = build('a.html', 'slow.html').next(true)
+        put(current, 'a.html')
+        //slow.html timed out, so it wasn't written this time but is still produced:
+        current.retainAll()
+
+        assertEquals 0, current.prune(dir)
+
+        assertTrue file('slow.html').exists()
+        assertEquals 2, current.size()
+        assertNotNull current.next(true).getPrevious('slow.html')
+    }
+
+    @Test
+    void testEmptyDirectoriesAreDeleted() {
+        OutputManifest current = build('a.html', 'docs/api/x/b.html', 'docs/c.html').next(true)
+        put(current, 'a.html')
+        put(current, 'docs/c.html')
+
+        assertEquals 1, current.prune(dir)
+
+        assertFalse file('docs/api').exists()
+        assertTrue file('docs/c.html').exists()
+
+        //the destination directory itself is never deleted, even if it is left empty:
+        assertEquals 2, current.next(true).prune(dir)
+        assertFalse file('docs').exists()
+        assertTrue dir.isDirectory()
+    }
+
+    @Test
+    void testPathsOutsideTheDirectoryAreNeverDeleted() {
+        File outside = new File(root, 'outside.txt')
+        outside.text = 'keep'
+        OutputManifest previous = build('a.html')
+        previous.put('../outside.txt', new OutputManifest.Output('hash', 4, outside.lastModified()), null)
+        previous.put('docs/../../outside.txt', new OutputManifest.Output('hash', 4, outside.lastModified()), null)
+        previous.put(outside.absolutePath, new OutputManifest.Output('hash', 4, outside.lastModified()), null)
+        previous.put('.', new OutputManifest.Output('hash', 4, 0), null)
+
+        assertEquals 1, previous.next(true).prune(dir)
+
+        assertTrue outside.exists()
+        assertTrue dir.isDirectory()
+    }
+
+    @Test
+    void testSaveAndLoad() {
+        File stateDir = new File(root, 'state')
+        stateDir.mkdirs()
+        OutputManifest manifest = build('a.html', 'docs/b.html')
+        manifest.save(stateDir, dir)
+
+        OutputManifest loaded = OutputManifest.load(stateDir, dir).next(true)
+
+        OutputManifest.Output output = loaded.getPrevious('docs/b.html')
+        assertEquals Digests.sha256('docs/b.html'), output.hash
+        assertEquals file('docs/b.html').length(), output.size
+        assertEquals file('docs/b.html').lastModified(), output.lastModified
+        assertTrue new File(stateDir, OutputManifest.CHANGES_FILE_NAME).isFile()
+    }
+
+    @Test
+    void testLoadCorruptManifest() {
+        File stateDir = new File(root, 'state')
+        stateDir.mkdirs()
+        new File(stateDir, OutputManifest.DEFAULT_FILE_NAME).text = '{"version": 1, "files": '
+
+        assertEquals 0, OutputManifest.load(stateDir, dir).size()
+    }
+
+    @Test
+    void testLoadForAnotherDirectory() {
+        File stateDir = new File(root, 'state')
+        stateDir.mkdirs()
+        build('a.html').save(stateDir, dir)
+        File other = new File(root, 'other')
+        new File(other, 'a.html').with { parentFile.mkdirs(); text = 'unrelated' }
+
+        OutputManifest loaded = OutputManifest.load(stateDir, other)
+        assertEquals 0, loaded.size()
+        assertNull loaded.next(true).getPrevious('a.html')
+        assertEquals 0, loaded.next(true).prune(other)
+        assertTrue new File(other, 'a.html').exists()
+
+        //the same directory, however it is specified:
+        assertEquals 1, OutputManifest.load(stateDir, new File(dir, '../dest')).size()
+    }
+
+    @Test
+    void testIncompleteBuildPrunesOnlyRemovedOutputs() {
+        OutputManifest current = build('a.html', 'b.html', 'docs/c.html', 'docs/d.html').next(false)
+        current.remove('a.html')
+        current.remove('docs')
+
+        assertEquals 3, current.prune(dir)
+
+        assertFalse file('a.html').exists()
+        assertTrue file('b.html').exists()
+        assertFalse file('docs').exists()
+        assertEquals(['a.html', 'docs/c.html', 'docs/d.html'] as Set,
+                current.getChanges(OutputManifest.Change.REMOVED).keySet())
+        assertEquals 1, current.size()
+    }
+}
@@ -0,0 +1,171 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.file.Files
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class OutputWriterTest {
+
+    File dir
+    OutputWriter writer
+
+    @Before
+    void setUp() {
+        dir = File.createTempFile('scms-output-writer', '')
+        dir.delete()
+        dir.mkdirs()
+        writer = new OutputWriter()
+        writer.manifest = new OutputManifest().next(true)
+    }
+
+    @After
+    void tearDown() {
+        dir.deleteDir()
+    }
+
+    private File file(String path) {
+        return new File(dir, path)
+    }
+
+    @Test
+    void testWriteNewFile() {
+        assertEquals 5, writer.write(dir, 'a/b/c.html', 'héllo'.substring(0, 4))
+
+        assertEquals 'héll', file('a/b/c.html').getText('UTF-8')
+        assertEquals(['a/b/c.html'], writer.manifest.getChanges(OutputManifest.Change.ADDED).keySet() as List)
+        assertEquals(['c.html'], file('a/b').list() as List) //no temporary file left behind
+    }
+
+    @Test
+    void testDeleteTemporaryFiles() {
+        File tmpDir = file(OutputWriter.TEMP_DIR_NAME)
+        writer.write(dir, 'a.html', 'a')
+        assertEquals 0, tmpDir.list().length
+        new File(tmpDir, 'b.html.0123456789abcdef.tmp').text = 'left behind by an interrupted build'
+
+        writer.deleteTemporaryFiles(dir)
+
+        assertFalse tmpDir.exists()
+        writer.write(dir, 'b.html', 'b') //the directory is created again
+        assertEquals 'b', file('b.html').text
+    }
+
+    @Test
+    void testUnchangedFileIsNotWritten() {
+        file('a.html').text = 'same'
+        file('a.html').setLastModified(1000000000000L)
+
+        writer.write(dir, 'a.html', 'same')
+
+        assertEquals 1000000000000L, file('a.html').lastModified()
+        assertTrue writer.manifest.getChanges(OutputManifest.Change.CHANGED).isEmpty()
+        assertEquals 1, writer.manifest.size()
+    }
+
+    @Test
+    void testChangedFileIsReplaced() {
+        file('a.html').text = 'old'
+
+        writer.write(dir, 'a.html', 'new')
+
+        assertEquals 'new', file('a.html').text
+        assertEquals(['a.html'], writer.manifest.getChanges(OutputManifest.Change.CHANGED).keySet() as List)
+        assertEquals 0, file(OutputWriter.TEMP_DIR_NAME).list().length //no temporary file left behind
+    }
+
+    @Test
+    void testHardLinkedFileIsReplacedNotWrittenThrough() {
+        File source = File.createTempFile('scms-source', '.html')
+        try {
+            source.text = 'source'
+            Files.createLink(file('a.html').toPath(), source.toPath())
+
+            writer.write(dir, 'a.html', 'rendered')
+
+            assertEquals 'rendered', file('a.html').text
+            assertEquals 'source', source.text
+        } finally {
+            source.delete()
+        }
+    }
+
+    /**
+     * Copies the specified source to 'a.png' as the next build would, returning how the copy changed.
+     */
+    private OutputManifest.Change copy(File src, FileCopier.Mode mode) {
+        writer.manifest = writer.manifest.next(true)
+        writer.copy(src, dir, 'a.png', mode)
+        OutputManifest manifest = writer.manifest
+        for (OutputManifest.Change change : OutputManifest.Change.values()) {
+            if (manifest.getChanges(change).containsKey('a.png')) {
+                return change
+            }
+        }
+        return null
+    }
+
+    private File source(List<Integer> bytes) {
+        File src = File.createTempFile('scms-source', '.png')
+        src.deleteOnExit()
+        src.bytes = bytes as byte[]
+        src.setLastModified(1000000000000L)
+        return src
+    }
+
+    private static void edit(File f, List<Integer> bytes) {
+        f.withOutputStream { it.write(bytes as byte[]) } //in place, not replaced
+        f.setLastModified(f.lastModified() + 5000)
+    }
+
+    @Test
+    void testQuickCopy() {
+        File src = source([1, 2, 3])
+
+        assertEquals OutputManifest.Change.ADDED, copy(src, FileCopier.Mode.QUICK)
+        assertNull copy(src, FileCopier.Mode.QUICK) //skipped by the quick check
+
+        edit(src, [4, 5, 6])
+        assertEquals OutputManifest.Change.CHANGED, copy(src, FileCopier.Mode.QUICK)
+        assertEquals Digests.sha256(src), writer.manifest.next(true).getPrevious('a.png').hash
+    }
+
+    @Test
+    void testHardLinkEditedInPlace() {
+        File src = source([1, 2, 3])
+
+        assertEquals OutputManifest.Change.ADDED, copy(src, FileCopier.Mode.HARDLINK)
+
+        //editing the source edits the output, too, so the copy is up to date - but its content changed:
+        edit(src, [4, 5, 6])
+        assertEquals OutputManifest.Change.CHANGED, copy(src, FileCopier.Mode.HARDLINK)
+        assertNull copy(src, FileCopier.Mode.HARDLINK)
+    }
+
+    @Test
+    void testReflinkFallback() {
+        File src = source([1, 2, 3])
+
+        assertEquals OutputManifest.Change.ADDED, copy(src, FileCopier.Mode.REFLINK)
+        assertArrayEquals([1, 2, 3] as byte[], file('a.png').bytes)
+        assertNull copy(src, FileCopier.Mode.REFLINK)
+
+        edit(src, [4, 5, 6])
+        assertEquals OutputManifest.Change.CHANGED, copy(src, FileCopier.Mode.REFLINK)
+        assertArrayEquals([4, 5, 6] as byte[], file('a.png').bytes)
+    }
+
+    @Test
+    void testUnrecordedUpToDateCopyIsUnchanged() {
+        File src = source([1, 2, 3])
+        new FileCopier().copy(src, file('a.png'), FileCopier.Mode.QUICK)
+
+        assertNull copy(src, FileCopier.Mode.QUICK)
+    }
+}
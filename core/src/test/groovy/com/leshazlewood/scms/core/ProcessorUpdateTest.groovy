@@ -0,0 +1,237 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests {@link Processor#update(Collection)}: which files an update after an initial run renders again.  As in
+ * {@link IncrementalBuildTest}, outputs are tampered with to tell which ones were written.
+ *
+ * @since 0.4
+ */
+class ProcessorUpdateTest {
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('templates/a.vtl', 'a:$content#parse("' + site.template('partials/footer.vtl') + '")')
+        site.source('templates/b.vtl', 'b:$content')
+        site.source('partials/footer.vtl', 'footer')
+        site.source('a.md', 'A')
+        site.source('b.md', 'B')
+        site.source('notes.txt', 'notes')
+        configure('Test')
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    private void configure(String siteName) {
+        site.config("""
+scms {
+    excludes = ['templates/**', 'partials/**']
+    model { siteName = '$siteName' }
+    patterns {
+        'a.md' { template = '${site.template('templates/a.vtl')}' }
+        'b.md' { template = '${site.template('templates/b.vtl')}' }
+    }
+}
+""")
+    }
+
+    private void tamper(String... paths) {
+        for (String path : paths) {
+            site.output(path).text = 'tampered'
+        }
+    }
+
+    private boolean rewritten(String path) {
+        return site.read(path) != 'tampered'
+    }
+
+    @Test
+    void testChangedSourceFile() {
+        DefaultProcessor processor = site.build()
+        tamper('a.html', 'b.html', 'notes.txt')
+
+        processor.update([site.source('b.md', 'Changed')])
+
+        assertFalse rewritten('a.html')
+        assertTrue site.read('b.html').contains('Changed')
+        assertFalse rewritten('notes.txt')
+    }
+
+    @Test
+    void testNewDirectory() {
+        DefaultProcessor processor = site.build()
+        site.source('docs/c.txt', 'c')
+        site.source('docs/d.txt', 'd')
+
+        processor.update([new File(site.sourceDir, 'docs')])
+
+        assertEquals 'c', site.read('docs/c.txt')
+        assertEquals 'd', site.read('docs/d.txt')
+    }
+
+    @Test
+    void testDeletedSourceFile() {
+        DefaultProcessor processor = site.build(incremental: true)
+        tamper('a.html')
+        File deleted = new File(site.sourceDir, 'b.md')
+        deleted.delete()
+
+        processor.update([deleted])
+
+        assertFalse site.output('b.html').exists()
+        assertNull processor.manifest.get('b.md')
+        assertFalse rewritten('a.html')
+        assertTrue site.output('notes.txt').exists()
+    }
+
+    @Test
+    void testDeletedSourceFileWithoutManifest() {
+        DefaultProcessor processor = site.build()
+        File deleted = new File(site.sourceDir, 'b.md')
+        deleted.delete()
+
+        processor.update([deleted])
+
+        assertFalse site.output('b.html').exists()
+        assertTrue site.output('a.html').exists()
+    }
+
+    @Test
+    void testDeletedSourceDirectory() {
+        site.source('docs/c.md', 'C')
+        site.source('docs/d.txt', 'd')
+        DefaultProcessor processor = site.build(incremental: true)
+        assertTrue site.output('docs/c.html').exists()
+        File deleted = new File(site.sourceDir, 'docs')
+        deleted.deleteDir()
+
+        processor.update([deleted])
+
+        assertFalse site.output('docs').exists()
+        assertNull processor.manifest.get('docs' + File.separator + 'c.md')
+        assertTrue site.output('a.html').exists()
+    }
+
+    @Test
+    void testDeletedExcludedFileIsIgnored() {
+        DefaultProcessor processor = site.build()
+        tamper('a.html', 'b.html')
+        File deleted = new File(site.sourceDir, 'partials/footer.vtl')
+        deleted.delete()
+
+        processor.update([deleted])
+
+        assertFalse rewritten('a.html')
+        assertFalse rewritten('b.html')
+    }
+
+    @Test
+    void testTemplateLookupDoesNotChangeTheConfig() {
+        DefaultProcessor processor = site.build()
+
+        processor.update([site.source('templates/b.vtl', 'B:$content')])
+
+        assertFalse processor.config.containsKey('template')
+    }
+
+    @Test
+    void testChangedTemplateRendersItsDependentsOnly() {
+        DefaultProcessor processor = site.build(incremental: true)
+        tamper('a.html', 'b.html')
+
+        processor.update([site.source('templates/a.vtl', 'A:$content')])
+
+        assertEquals 'A:<p>A</p>', site.read('a.html').trim()
+        assertFalse rewritten('b.html')
+    }
+
+    @Test
+    void testChangedPartialRendersItsDependentsOnly() {
+        DefaultProcessor processor = site.build(incremental: true)
+        tamper('a.html', 'b.html')
+
+        processor.update([site.source('partials/footer.vtl', 'changed footer')])
+
+        assertTrue site.read('a.html').contains('changed footer')
+        assertFalse rewritten('b.html')
+    }
+
+    @Test
+    void testChangedTemplateWithoutManifestRendersEverything() {
+        DefaultProcessor processor = site.build()
+        tamper('a.html', 'b.html')
+
+        processor.update([site.source('templates/a.vtl', 'A:$content')])
+
+        assertTrue rewritten('a.html')
+        assertTrue rewritten('b.html')
+    }
+
+    @Test
+    void testUnknownExcludedFileRebuildsEverything() {
+        DefaultProcessor processor = site.build(incremental: true)
+        tamper('a.html', 'b.html')
+
+        processor.update([site.source('partials/unused.vtl', 'unused')])
+
+        assertTrue rewritten('a.html')
+        assertTrue rewritten('b.html')
+    }
+
+    @Test
+    void testChangedConfigReloadsAndRebuilds() {
+        site.source('templates/b.vtl', '$siteName:$content')
+        DefaultProcessor processor = site.build()
+        assertTrue site.read('b.html').startsWith('Test:')
+
+        configure('Changed')
+        processor.update([new File(site.sourceDir, DefaultProcessor.DEFAULT_CONFIG_FILE_NAME)])
+
+        assertTrue site.read('b.html').startsWith('Changed:')
+    }
+
+    @Test
+    void testChangedVelocimacroLibraryRebuildsEverything() {
+        File library = site.source('templates/macros.vm', '#macro(greet)Hello#end')
+        site.source('templates/b.vtl', '#greet():$content')
+        DefaultProcessor processor = site.build(incremental: true, velocimacroLibrary: library)
+        assertTrue site.read('b.html').startsWith('Hello:')
+        tamper('a.html')
+
+        processor.update([site.source('templates/macros.vm', '#macro(greet)Howdy#end')])
+
+        assertTrue site.read('b.html').startsWith('Howdy:')
+        assertTrue rewritten('a.html')
+    }
+
+    @Test
+    void testDefaultUpdateRunsEverything() {
+        int runs = 0
+        //implements only the methods every Processor had before 0.4:
+        Processor processor = new Processor() {
+            void setSourceDir(File sourceDir) {}
+            void setDestDir(File destDir) {}
+            void setConfigFile(File configFile) {}
+            void setEnvironment(String envName) {}
+            void init() {}
+            void run() { runs++ }
+        }
+        processor.jobs = 4
+        processor.incremental = true
+
+        processor.update([site.sourceDir])
+
+        assertEquals 1, runs
+    }
+}
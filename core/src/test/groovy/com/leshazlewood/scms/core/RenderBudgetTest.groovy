@@ -0,0 +1,125 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests the per-file {@code renderTimeout}: runaway templates are stopped, optionally rendered as preformatted text
+ * instead, and every file that timed out is reported once the build is done.
+ *
+ * @since 0.4
+ */
+class RenderBudgetTest {
+
+    //a loop that neither inserts references nor writes output, and would run for hours:
+    static final String RUNAWAY = '#foreach($i in [1..100000])#foreach($j in [1..100000])#set($x = $j)#end#end'
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('fine.html.vtl', 'fine')
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    private void configure(String fallback) {
+        site.config("""
+scms {
+    renderTimeout = 200
+    ${fallback ? "renderTimeoutFallback = '$fallback'" : ''}
+}
+""")
+    }
+
+    @Test(timeout = 30000L)
+    void testTimeoutsAreReportedTogether() {
+        configure(null)
+        site.source('a.html.vtl', RUNAWAY)
+        site.source('b.html.vtl', RUNAWAY)
+
+        try {
+            site.build()
+            fail 'the runaway files should have timed out'
+        } catch (IOException e) {
+            assertEquals '2 file(s) could not be rendered within their renderTimeout: a.html.vtl (200 ms), ' +
+                    'b.html.vtl (200 ms)', e.message
+        }
+        //the other files are still rendered:
+        assertEquals 'fine', site.read('fine.html')
+    }
+
+    @Test(timeout = 30000L)
+    void testTimeoutsAreReportedTogetherWithJobs() {
+        configure(null)
+        site.source('a.html.vtl', RUNAWAY)
+        site.source('b.html.vtl', RUNAWAY)
+
+        try {
+            site.build(jobs: 2)
+            fail 'the runaway files should have timed out'
+        } catch (IOException e) {
+            assertTrue e.message.startsWith('2 file(s) could not be rendered within their renderTimeout')
+        }
+        assertEquals 'fine', site.read('fine.html')
+    }
+
+    @Test(timeout = 30000L)
+    void testPreformattedFallback() {
+        configure('pre')
+        site.source('a.html.vtl', '<b>' + RUNAWAY)
+
+        site.build()
+
+        assertEquals '<pre>&lt;b&gt;' + RUNAWAY + '</pre>', site.read('a.html').trim()
+        assertEquals 'fine', site.read('fine.html')
+    }
+
+    @Test
+    void testRemainingMillis() {
+        RenderBudget budget = RenderBudget.start('test', 60000)
+        try {
+            long remaining = budget.remainingMillis
+            assertTrue remaining > 50000 && remaining <= 60000
+        } finally {
+            budget.end()
+        }
+        assertNull RenderBudget.current()
+    }
+
+    @Test
+    void testPegdownMaxParsingTimeBuckets() {
+        assertEquals 1, PegdownRenderer.maxParsingTime(0)
+        assertEquals 1, PegdownRenderer.maxParsingTime(1)
+        assertEquals 2, PegdownRenderer.maxParsingTime(2)
+        assertEquals 4, PegdownRenderer.maxParsingTime(3)
+        assertEquals 1024, PegdownRenderer.maxParsingTime(1000)
+        assertEquals 1024, PegdownRenderer.maxParsingTime(1023)
+        assertEquals 1024, PegdownRenderer.maxParsingTime(1024)
+        assertEquals 2048, PegdownRenderer.maxParsingTime(1025)
+    }
+
+    @Test
+    void testPegdownChecksExhaustedBudget() {
+        PegdownRenderer renderer = new PegdownRenderer(0)
+        DefaultRenderRequest request = new DefaultRenderRequest([:], new DefaultResource('a.md',
+                new StringReader('# A')), new StringWriter())
+        RenderBudget budget = RenderBudget.start('a.md', 1)
+        try {
+            Thread.sleep(10)
+            renderer.render(request)
+            fail 'the exhausted budget should have been detected'
+        } catch (RenderTimeoutException expected) {
+            assertEquals 'a.md', expected.name
+        } finally {
+            budget.end()
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.leshazlewood.scms.core
+
+import org.apache.velocity.app.VelocityEngine
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class RenderCacheTest {
+
+    File dir
+    File output
+
+    @Before
+    void setUp() {
+        dir = File.createTempFile('scms-render-cache', '')
+        dir.delete()
+        output = File.createTempFile('scms-output', '.html')
+    }
+
+    @After
+    void tearDown() {
+        dir.deleteDir()
+        output.delete()
+    }
+
+    private static String key(String name) {
+        return Digests.sha256(name)
+    }
+
+    private File entryFile(String name) {
+        String key = key(name)
+        return new File(new File(dir, key.substring(0, 2)), key)
+    }
+
+    private void put(RenderCache cache, String name, String content, Map<String, String> templates = [:]) {
+        output.setText(content, StandardCharsets.UTF_8.name())
+        cache.put(key(name), templates, output)
+    }
+
+    private static String read(RenderCache.Entry entry) {
+        ByteBuffer content = entry.read()
+        return new String(content.array(), content.position(), content.remaining(), StandardCharsets.UTF_8)
+    }
+
+    @Test
+    void testHit() {
+        RenderCache cache = new RenderCache(dir)
+        put(cache, 'a', '<p>cached é</p>', ['templates/default.vtl': 'abc123'])
+
+        RenderCache.Entry entry = cache.get(key('a'))
+
+        assertNotNull entry
+        assertEquals(['templates/default.vtl': 'abc123'], entry.templates)
+        assertEquals '<p>cached é</p>', read(entry)
+        assertEquals 1, cache.hits
+        assertEquals 0, cache.misses
+    }
+
+    @Test
+    void testMiss() {
+        RenderCache cache = new RenderCache(dir)
+        put(cache, 'a', 'a')
+
+        assertNull cache.get(key('b'))
+        assertEquals 0, cache.hits
+        assertEquals 1, cache.misses
+    }
+
+    @Test
+    void testCorruptEntry() {
+        RenderCache cache = new RenderCache(dir)
+        put(cache, 'a', 'a')
+        put(cache, 'b', 'b', ['t': 'hash'])
+
+        entryFile('a').text = 'not a render cache entry'
+        entryFile('b').bytes = 'scms-render-cache 1\n3\nhash t\n'.getBytes(StandardCharsets.UTF_8) //truncated
+
+        assertNull cache.get(key('a'))
+        assertNull cache.get(key('b'))
+        assertEquals 2, cache.misses
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() {
+        String content = 'x' * 100
+        RenderCache cache = new RenderCache(dir, 300)
+        put(cache, 'a', content)
+        put(cache, 'b', content)
+        long now = System.currentTimeMillis()
+        entryFile('a').setLastModified(now - 20000)
+        entryFile('b').setLastModified(now - 10000)
+
+        read(cache.get(key('a'))) //a is now the most recently used entry
+        put(cache, 'c', content) //exceeds the maximum size
+
+        assertNotNull cache.get(key('a'))
+        assertNull cache.get(key('b'))
+        assertNotNull cache.get(key('c'))
+    }
+
+    @Test
+    void testChangedTemplateIsNotServedFromCache() {
+        TestSite site = new TestSite()
+        try {
+            site.source('templates/default.vtl', 'v1:$content')
+            site.source('index.md', 'Hello')
+            site.config("""
+scms {
+    excludes = ['templates/**']
+    patterns {
+        '**/*.md' { template = '${site.template('templates/default.vtl')}' }
+    }
+}
+""")
+            RenderCache cache = new RenderCache(dir)
+            site.build(renderCache: cache)
+            assertEquals 0, cache.hits
+
+            //unchanged: served from the cache, even into an empty destination directory
+            site.destDir.deleteDir()
+            site.build(renderCache: cache)
+            assertEquals 1, cache.hits
+            assertEquals 'v1:<p>Hello</p>', site.read('index.html').trim()
+
+            site.source('templates/default.vtl', 'v2:$content')
+            site.build(renderCache: cache)
+            assertEquals 1, cache.hits
+            assertEquals 'v2:<p>Hello</p>', site.read('index.html').trim()
+        } finally {
+            site.delete()
+        }
+    }
+
+    @Test
+    void testVersion() {
+        //loaded from a jar:
+        assertTrue Version.of(VelocityEngine).contains('velocity-1.7.jar')
+        //loaded from a directory:
+        assertEquals(String.valueOf(new File(RenderCache.getResource('RenderCache.class').toURI()).lastModified()),
+                Version.of(RenderCache))
+    }
+}
@@ -0,0 +1,258 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.*
+
+/**
+ * @since 0.4
+ */
+class RenderPipelineTest {
+
+    RenderPipeline pipeline
+    double currentHeapUsage = 0.5 //what the pipeline's own checks on submit find
+
+    @Before
+    void setUp() {
+        pipeline = new RenderPipeline(2, 2, 8, RenderPipeline.DEFAULT_MAX_IN_FLIGHT_BYTES) {
+            @Override
+            double getHeapUsage() {
+                return currentHeapUsage
+            }
+        }
+    }
+
+    @After
+    void tearDown() {
+        pipeline.close()
+    }
+
+    private void adapt(double usage, int times = 1) {
+        times.times { pipeline.adaptToHeapUsage(usage) }
+    }
+
+    @Test
+    void testSustainedHighHeapUsageHalvesTheFileLimit() {
+        adapt(0.9, 2)
+        assertEquals 8, pipeline.fileLimit //a single garbage-filled sample or two don't count
+
+        adapt(0.9)
+        assertEquals 4, pipeline.fileLimit
+
+        adapt(0.9, 3)
+        assertEquals 2, pipeline.fileLimit
+
+        adapt(0.9, 6)
+        assertEquals 1, pipeline.fileLimit //never less than one file
+    }
+
+    @Test
+    void testNormalHeapUsageResetsTheHighUsageChecks() {
+        adapt(0.9, 2)
+        adapt(0.7)
+        adapt(0.9, 2)
+        assertEquals 8, pipeline.fileLimit
+    }
+
+    @Test
+    void testFileLimitIsRestoredOnceHeapUsageIsLow() {
+        adapt(0.9, 6)
+        assertEquals 2, pipeline.fileLimit
+
+        adapt(0.7, 10) //between the thresholds: unchanged
+        assertEquals 2, pipeline.fileLimit
+
+        adapt(0.5)
+        assertEquals 8, pipeline.fileLimit
+    }
+
+    @Test(timeout = 10000L)
+    void testThrottledPipelineAdmitsOneFileAtATime() {
+        currentHeapUsage = 0.9
+        adapt(0.9, 9)
+        assertEquals 1, pipeline.fileLimit
+
+        CountDownLatch release = new CountDownLatch(1)
+        pipeline.submit(1, { release.await() } as RenderPipeline.Task)
+
+        Thread submitter = Thread.start {
+            pipeline.submit(1, {} as RenderPipeline.Task)
+        }
+        submitter.join(200)
+        assertTrue 'the second file should wait for the first', submitter.alive
+
+        release.countDown()
+        submitter.join()
+        pipeline.await()
+    }
+
+    @Test(timeout = 10000L)
+    void testPermitsOfFilesInFlightAreNotWithheld() {
+        CountDownLatch started = new CountDownLatch(6)
+        CountDownLatch release = new CountDownLatch(1)
+        6.times {
+            pipeline.submit(1, { started.countDown(); release.await() } as RenderPipeline.Task)
+        }
+
+        adapt(0.9, 3) //only 2 permits are available
+        assertEquals 6, pipeline.fileLimit
+
+        release.countDown()
+        pipeline.await()
+        adapt(0.9, 3)
+        assertEquals 3, pipeline.fileLimit
+
+        adapt(0.5)
+        assertEquals 8, pipeline.fileLimit
+        assertTrue started.await(0, TimeUnit.MILLISECONDS)
+    }
+
+    @Test(timeout = 10000L)
+    void testFileLimitBlocksSubmit() {
+        RenderPipeline pipeline = new RenderPipeline(4, 4, 2, RenderPipeline.DEFAULT_MAX_IN_FLIGHT_BYTES)
+        try {
+            CountDownLatch release = new CountDownLatch(1)
+            2.times { pipeline.submit(1, { release.await() } as RenderPipeline.Task) }
+
+            assertBlocked(pipeline, 1, release)
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    @Test(timeout = 10000L)
+    void testByteLimitBlocksSubmit() {
+        RenderPipeline pipeline = new RenderPipeline(4, 4, 100, 10 * 1024)
+        try {
+            CountDownLatch release = new CountDownLatch(1)
+            pipeline.submit(6 * 1024, { release.await() } as RenderPipeline.Task)
+
+            assertBlocked(pipeline, 6 * 1024, release)
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    @Test(timeout = 10000L)
+    void testFileLargerThanByteLimitIsAdmittedAlone() {
+        RenderPipeline pipeline = new RenderPipeline(4, 4, 100, 10 * 1024)
+        try {
+            CountDownLatch release = new CountDownLatch(1)
+            pipeline.submit(1024, { release.await() } as RenderPipeline.Task)
+
+            assertBlocked(pipeline, 100 * 1024, release)
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    /**
+     * Asserts that submitting a file of the specified size blocks until the files in flight are released.
+     */
+    private static void assertBlocked(RenderPipeline pipeline, long size, CountDownLatch release) {
+        boolean submitted = false
+        Thread submitter = Thread.start {
+            pipeline.submit(size, {} as RenderPipeline.Task)
+            submitted = true
+        }
+        submitter.join(200)
+        assertFalse 'submit should block while the pipeline is full', submitted
+
+        release.countDown()
+        submitter.join()
+        assertTrue submitted
+        pipeline.await()
+    }
+
+    @Test(timeout = 10000L)
+    void testPermitsAreReleasedWhenTheLastStageCompletes() {
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 1, 1024)
+        try {
+            List<String> stages = Collections.synchronizedList([])
+            //each file uses the only permit, so the next submit only returns once the previous file went through
+            //all stages:
+            3.times { i ->
+                pipeline.submit(1024, {
+                    stages << "read $i".toString()
+                    pipeline.render({
+                        stages << "render $i".toString()
+                        pipeline.write({ stages << "write $i".toString() } as RenderPipeline.Task)
+                    } as RenderPipeline.Task)
+                } as RenderPipeline.Task)
+            }
+            pipeline.await()
+
+            assertEquals(['read 0', 'render 0', 'write 0', 'read 1', 'render 1', 'write 1', 'read 2', 'render 2',
+                          'write 2'], stages)
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    @Test(timeout = 10000L)
+    void testPermitsAreReleasedWhenATaskFails() {
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 1, 1024)
+        try {
+            pipeline.submit(1024, {
+                pipeline.render({ throw new IllegalStateException('render failed') } as RenderPipeline.Task)
+            } as RenderPipeline.Task)
+
+            try {
+                pipeline.await()
+                fail 'the failure should have been rethrown'
+            } catch (IOException e) {
+                assertTrue e.cause instanceof IllegalStateException
+                assertEquals 'render failed', e.message
+            }
+            //the failed file's permits were released, so this doesn't block, but fails fast:
+            try {
+                pipeline.submit(1024, {} as RenderPipeline.Task)
+                fail 'a failed pipeline should not accept files'
+            } catch (IOException expected) {
+                assertEquals 'render failed', expected.message
+            }
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    @Test(timeout = 10000L)
+    void testAwaitRethrowsTheFirstFailureAndSkipsQueuedFiles() {
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 10, 1024 * 1024)
+        try {
+            IOException first = new IOException('first')
+            CountDownLatch release = new CountDownLatch(1)
+            boolean ran = false
+            //a single read thread runs these in order:
+            pipeline.submit(1, { release.await() } as RenderPipeline.Task)
+            pipeline.submit(1, { throw first } as RenderPipeline.Task)
+            pipeline.submit(1, { throw new IOException('second') } as RenderPipeline.Task)
+            pipeline.submit(1, { ran = true } as RenderPipeline.Task)
+            release.countDown()
+
+            try {
+                pipeline.await()
+                fail 'the failure should have been rethrown'
+            } catch (IOException e) {
+                assertSame first, e
+            }
+            assertFalse 'files queued after a failure should be skipped', ran
+        } finally {
+            pipeline.close()
+        }
+    }
+
+    @Test
+    void testHandingOnOutsideATaskFails() {
+        try {
+            pipeline.render({} as RenderPipeline.Task)
+            fail 'only a running task may hand its file on'
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
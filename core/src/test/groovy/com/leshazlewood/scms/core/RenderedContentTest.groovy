@@ -0,0 +1,87 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests that templates can use {@code $content} as the {@code String} it used to be.
+ *
+ * @since 0.4
+ */
+class RenderedContentTest {
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('index.md', '# Hello World\n')
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    private String render(String template) {
+        site.source('templates/default.vtl', template)
+        site.config("""
+scms {
+    excludes = ['templates/**']
+    patterns {
+        '**/*.md' { template = '${site.template('templates/default.vtl')}' }
+    }
+}
+""")
+        site.build()
+        return site.read('index.html')
+    }
+
+    @Test
+    void testContent() {
+        assertEquals '[<h1>Hello World</h1>]', render('[$content.trim()]')
+    }
+
+    @Test
+    void testStringMethods() {
+        assertEquals '<h1>Hello Velocity</h1>', render('$content.trim().replace("World", "Velocity")')
+        assertEquals 'true false', render('$content.contains("Hello") $content.startsWith("x")')
+        assertEquals 'Hello', render('$content.trim().substring(4, 9)')
+        assertEquals '<H1>HELLO WORLD</H1>', render('$content.toUpperCase().trim()')
+        assertEquals '4', render('$content.indexOf("Hello")')
+    }
+
+    @Test
+    void testCharSequenceMethods() {
+        assertEquals '20', render('$content.trim().length()')
+        assertEquals '<', render('$content.charAt(0)')
+    }
+
+    @Test
+    void testStringProperty() {
+        assertEquals 'false', render('$content.empty')
+    }
+
+    @Test
+    void testDirectives() {
+        assertEquals 'yes', render('#if($content.contains("World"))yes#{else}no#end')
+        assertEquals '2', render('#set($parts = $content.split("World"))$parts.size()')
+    }
+
+    @Test
+    void testBufferReleasedOnAnotherThreadIsReused() {
+        RenderBuffer buffer = RenderBuffer.acquire()
+        buffer.write('content')
+        Thread writer = new Thread({ buffer.release() } as Runnable)
+        writer.start()
+        writer.join()
+
+        RenderBuffer reused = RenderBuffer.acquire()
+        assertSame buffer, reused
+        assertEquals 0, reused.size()
+        reused.release()
+    }
+}
@@ -117,4 +117,19 @@ class SiteExporterTest {
         assertEquals 'value2b', model.key2.get(1)
         assertEquals 'value3', model.key3
     }
+
+    @Test
+    void testStripMetadataWithCrLfLineEndings() {
+
+        def md = 'key1: value1\r\nkey2: value2a\r\n  value2b\r\n\r\ncontent\r\n'
+
+        Map<String,Object> model = new LinkedHashMap<String,Object>();
+
+        String result = exporter.stripMetadata(md, model);
+
+        assertEquals('content', result)
+        assertEquals 2, model.size()
+        assertEquals 'value1', model.key1
+        assertEquals(['value2a', 'value2b'], model.key2)
+    }
 }
@@ -0,0 +1,96 @@
+package com.leshazlewood.scms.core
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests that the state kept between builds is stored in the state directory and never published with the site.
+ *
+ * @since 0.4
+ */
+class StateDirTest {
+
+    static final List<String> STATE_FILES = [OutputManifest.DEFAULT_FILE_NAME, OutputManifest.CHANGES_FILE_NAME,
+                                             BuildManifest.DEFAULT_FILE_NAME]
+
+    TestSite site
+
+    @Before
+    void setUp() {
+        site = new TestSite()
+        site.source('index.html.vtl', 'index')
+    }
+
+    @After
+    void tearDown() {
+        site.delete()
+    }
+
+    @Test
+    void testDefaultStateDir() {
+        site.build(incremental: true)
+
+        File stateDir = new File(site.sourceDir, DefaultProcessor.DEFAULT_STATE_DIR_NAME)
+        for (String name : STATE_FILES) {
+            assertTrue name, new File(stateDir, name).isFile()
+            assertFalse name, site.output(name).exists()
+        }
+        //the state directory itself is not rendered:
+        assertFalse site.output(DefaultProcessor.DEFAULT_STATE_DIR_NAME).exists()
+        assertEquals(['index.html'], site.destDir.list() as List)
+
+        //and neither is it on the next build, which finds the state of the previous one:
+        site.build(incremental: true)
+        assertEquals(['index.html'], site.destDir.list() as List)
+    }
+
+    @Test
+    void testConfiguredStateDir() {
+        File stateDir = new File(site.root, 'state')
+        site.build(incremental: true, stateDir: stateDir)
+
+        for (String name : STATE_FILES) {
+            assertTrue name, new File(stateDir, name).isFile()
+        }
+        assertFalse new File(site.sourceDir, DefaultProcessor.DEFAULT_STATE_DIR_NAME).exists()
+    }
+
+    @Test
+    void testRenderCostsOfConcurrentBuild() {
+        site.build(jobs: 2)
+
+        File stateDir = new File(site.sourceDir, DefaultProcessor.DEFAULT_STATE_DIR_NAME)
+        assertTrue new File(stateDir, RenderCosts.DEFAULT_FILE_NAME).isFile()
+        assertEquals(['index.html'], site.destDir.list() as List)
+    }
+
+    @Test
+    void testLegacyStateFilesAreDeleted() {
+        for (String name : STATE_FILES + RenderCosts.DEFAULT_FILE_NAME) {
+            site.output(name).text = '{}'
+        }
+
+        site.build()
+
+        assertEquals(['index.html'], site.destDir.list() as List)
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testStateDirInsideDestDir() {
+        site.processor(stateDir: new File(site.destDir, 'state'))
+    }
+
+    @Test
+    void testUpdateIgnoresStateDir() {
+        DefaultProcessor processor = site.build()
+        site.output('index.html').text = 'tampered'
+
+        processor.update([new File(site.sourceDir, DefaultProcessor.DEFAULT_STATE_DIR_NAME + '/' +
+                OutputManifest.DEFAULT_FILE_NAME)])
+
+        assertEquals 'tampered', site.read('index.html')
+    }
+}
@@ -0,0 +1,84 @@
+package com.leshazlewood.scms.core
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * A throwaway site for tests that run a {@link DefaultProcessor}: a source and a destination directory in a temporary
+ * directory, which {@link #delete()} removes again.
+ *
+ * @since 0.4
+ */
+class TestSite {
+
+    final File root
+    final File sourceDir
+    final File destDir
+
+    TestSite() {
+        root = File.createTempFile('scms-site', '')
+        root.delete()
+        sourceDir = new File(root, 'src')
+        destDir = new File(root, 'dest')
+        sourceDir.mkdirs()
+        destDir.mkdirs()
+    }
+
+    /**
+     * Writes the specified source file, creating its directories as necessary.
+     */
+    File source(String path, String content) {
+        File f = new File(sourceDir, path)
+        f.parentFile.mkdirs()
+        f.setText(content, StandardCharsets.UTF_8.name())
+        return f
+    }
+
+    File config(String content) {
+        return source(DefaultProcessor.DEFAULT_CONFIG_FILE_NAME, content)
+    }
+
+    /**
+     * Returns the absolute path of the specified source file, for use as a {@code template} in the config: templates
+     * are resolved relative to the working directory, not the source directory.
+     */
+    String template(String path) {
+        return new File(sourceDir, path).absolutePath
+    }
+
+    File output(String path) {
+        return new File(destDir, path)
+    }
+
+    /**
+     * Returns the content of the specified output file, or {@code null} if it doesn't exist.
+     */
+    String read(String path) {
+        File f = output(path)
+        return f.isFile() ? f.getText(StandardCharsets.UTF_8.name()) : null
+    }
+
+    /**
+     * Returns a new, initialized processor for this site with the specified properties set.
+     */
+    DefaultProcessor processor(Map properties = [:]) {
+        DefaultProcessor processor = new DefaultProcessor()
+        processor.sourceDir = sourceDir
+        processor.destDir = destDir
+        properties.each { k, v -> processor."$k" = v }
+        processor.init()
+        return processor
+    }
+
+    /**
+     * Builds the site with a new processor with the specified properties set, returning the processor.
+     */
+    DefaultProcessor build(Map properties = [:]) {
+        DefaultProcessor processor = processor(properties)
+        processor.run()
+        return processor
+    }
+
+    void delete() {
+        root.deleteDir()
+    }
+}